@@ -0,0 +1,66 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+import hudson.remoting.VirtualChannel;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.jenkinsci.plugins.gitclient.RepositoryCallback;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads every tag pointing at a commit, with its message, tagger and creation date, in a single pass over the tag refs.
+ * <p>
+ * This is equivalent to {@code git for-each-ref --points-at=<commit> refs/tags}, followed by {@code git tag -n} for
+ * each tag, but needs only one call to the node holding the repository, and no git processes.
+ */
+class CommitTagsReader implements RepositoryCallback<List<TagEntry>> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String commit;
+    private final DescribeOptions describeOptions;
+
+    /**
+     * @param commit The SHA-1 of the commit whose tags should be read.
+     * @param describeOptions Limits which tags are read.
+     */
+    CommitTagsReader(String commit, DescribeOptions describeOptions) {
+        this.commit = commit;
+        this.describeOptions = describeOptions;
+    }
+
+    public List<TagEntry> invoke(Repository repo, VirtualChannel channel) throws IOException {
+        // Peeled tag refs are usually recorded in packed-refs, so this doesn't need to read every tag object
+        List<String> names = NearestTagIndex.getTagNamesByCommit(repo).get(ObjectId.fromString(commit));
+        if (names == null) {
+            return Collections.emptyList();
+        }
+
+        List<TagEntry> tags = new ArrayList<>(names.size());
+        try (RevWalk walk = new RevWalk(repo)) {
+            for (String name : names) {
+                Ref ref = repo.exactRef(Constants.R_TAGS + name);
+                if (ref == null || !describeOptions.isAllowed(name)) {
+                    continue;
+                }
+                RevObject target = walk.parseAny(ref.getObjectId());
+                String message = JGitTagResolver.readMessage(walk, target);
+                PersonIdent tagger = target instanceof RevTag ? ((RevTag) target).getTaggerIdent() : null;
+                tags.add(new TagEntry(name, message, JGitTagResolver.formatTagger(tagger),
+                        JGitTagResolver.formatDate(tagger), tagger == null ? 0 : tagger.getWhen().getTime(),
+                        target instanceof RevTag));
+            }
+        }
+        return tags;
+    }
+
+}
@@ -0,0 +1,129 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+import hudson.Util;
+import hudson.util.ArgumentListBuilder;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Limits which tags are considered when searching for the tag of a commit, equivalent to the {@code --match},
+ * {@code --exclude} and {@code --candidates} options of {@code git describe}.
+ */
+final class DescribeOptions implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Considers all tags, with git's default number of candidates. */
+    static final DescribeOptions NONE = new DescribeOptions(null, null, 0);
+
+    private final List<String> matchPatterns;
+    private final List<String> excludePatterns;
+    private final int candidates;
+
+    /** The patterns, compiled once, as they're checked against every tag in the repository. */
+    private final List<Pattern> matchRegexes;
+    private final List<Pattern> excludeRegexes;
+
+    /**
+     * @param matchPatterns Whitespace-separated glob patterns, one of which tag names must match; may be empty.
+     * @param excludePatterns Whitespace-separated glob patterns, none of which tag names may match; may be empty.
+     * @param candidates Maximum number of candidate tags for git to consider, or zero for git's default.
+     */
+    DescribeOptions(String matchPatterns, String excludePatterns, int candidates) {
+        this.matchPatterns = split(matchPatterns);
+        this.excludePatterns = split(excludePatterns);
+        this.candidates = Math.max(0, candidates);
+        this.matchRegexes = compile(this.matchPatterns);
+        this.excludeRegexes = compile(this.excludePatterns);
+    }
+
+    private static List<String> split(String patterns) {
+        String value = Util.fixEmptyAndTrim(patterns);
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(new ArrayList<>(Arrays.asList(value.split("\\s+"))));
+    }
+
+    private static List<Pattern> compile(List<String> globs) {
+        List<Pattern> regexes = new ArrayList<>(globs.size());
+        for (String glob : globs) {
+            regexes.add(globToRegex(glob));
+        }
+        return Collections.unmodifiableList(regexes);
+    }
+
+    /** @return {@code true} if all tags should be considered, as with a plain {@code git describe --tags}. */
+    boolean isEmpty() {
+        return matchPatterns.isEmpty() && excludePatterns.isEmpty() && candidates == 0;
+    }
+
+    /** Adds the equivalent {@code git describe} options to the given arguments. */
+    void addTo(ArgumentListBuilder args) {
+        for (String pattern : matchPatterns) {
+            args.add("--match", pattern);
+        }
+        for (String pattern : excludePatterns) {
+            args.add("--exclude", pattern);
+        }
+        if (candidates != 0) {
+            args.add("--candidates=" + candidates);
+        }
+    }
+
+    /** @return {@code true} if a tag with the given name may be chosen, according to the patterns. */
+    boolean isAllowed(String tagName) {
+        if (!matchRegexes.isEmpty() && !matchesAny(matchRegexes, tagName)) {
+            return false;
+        }
+        return !matchesAny(excludeRegexes, tagName);
+    }
+
+    private static boolean matchesAny(List<Pattern> regexes, String tagName) {
+        for (Pattern regex : regexes) {
+            if (regex.matcher(tagName).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Converts a glob, as understood by {@code git describe --match}, where '*' may also match '/', to a regex. */
+    static Pattern globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        boolean inBrackets = false;
+        char previous = 0;
+        for (char c : glob.toCharArray()) {
+            if (inBrackets) {
+                if (c == '!' && previous == '[') {
+                    regex.append('^');
+                } else {
+                    regex.append(c == '\\' ? "\\\\" : String.valueOf(c));
+                }
+                inBrackets = c != ']';
+            } else if (c == '*') {
+                regex.append(".*");
+            } else if (c == '?') {
+                regex.append('.');
+            } else if (c == '[') {
+                regex.append('[');
+                inBrackets = true;
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+            previous = c;
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("match=%s, exclude=%s, candidates=%d", matchPatterns, excludePatterns, candidates);
+    }
+
+}
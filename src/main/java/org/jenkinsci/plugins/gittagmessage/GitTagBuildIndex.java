@@ -0,0 +1,248 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+import hudson.Extension;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.listeners.RunListener;
+import hudson.util.AtomicFileWriter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records which builds of a job built which git tags, so that the builds for a tag can be found without loading every
+ * build of the job.
+ * <p>
+ * The index is stored in the job directory as a log, to which a line is appended whenever a build records a tag, or a
+ * build is deleted, so updates are cheap even for jobs with many builds. The log is compacted when it is loaded, if
+ * most of its lines are obsolete. Tag names can't contain tabs or newlines, so these are used as separators.
+ */
+public final class GitTagBuildIndex {
+
+    private static final Logger LOGGER = Logger.getLogger(GitTagBuildIndex.class.getName());
+
+    /** The name of the file in the job directory in which the index is stored. */
+    static final String FILE_NAME = "git-tag-builds.log";
+
+    private static final String ADDED = "+";
+    private static final String DELETED = "-";
+
+    /** Placeholder for an unknown commit, so that every line has the same number of fields. */
+    private static final String NO_COMMIT = "-";
+
+    /** Minimum number of obsolete lines in the log before it's worth compacting. */
+    private static final int MIN_OBSOLETE_LINES = 1000;
+
+    private static final Map<Job<?, ?>, GitTagBuildIndex> INDEXES = new WeakHashMap<>();
+
+    /** The job, which is only weakly referenced, as the index is the value of a weak map entry keyed by the job. */
+    private final WeakReference<Job<?, ?>> job;
+
+    /** The builds for each tag, newest first, with the commit that was built; {@code null} until loaded. */
+    private Map<String, NavigableMap<Integer, String>> buildsByTag;
+
+    /** The tags recorded by each build, so that deleted builds can be removed efficiently. */
+    private Map<Integer, Set<String>> tagsByBuild;
+
+    private GitTagBuildIndex(Job<?, ?> job) {
+        this.job = new WeakReference<>(job);
+    }
+
+    /** @return The tag index of the given job. */
+    public static GitTagBuildIndex forJob(Job<?, ?> job) {
+        synchronized (INDEXES) {
+            GitTagBuildIndex index = INDEXES.get(job);
+            if (index == null) {
+                index = new GitTagBuildIndex(job);
+                INDEXES.put(job, index);
+            }
+            return index;
+        }
+    }
+
+    private File getFile() {
+        Job<?, ?> owner = job.get();
+        if (owner == null) {
+            throw new IllegalStateException("The job of this git tag index has been unloaded");
+        }
+        return new File(owner.getRootDir(), FILE_NAME);
+    }
+
+    /** @return The numbers of the builds which built the given tag, newest first. */
+    public synchronized List<Integer> getBuildNumbers(String tagName) {
+        load();
+        NavigableMap<Integer, String> builds = buildsByTag.get(tagName);
+        return builds == null ? Collections.emptyList() : new ArrayList<>(builds.keySet());
+    }
+
+    /** @return The commit that the given build built for the given tag, or {@code null} if unknown. */
+    public synchronized String getCommit(String tagName, int buildNumber) {
+        load();
+        NavigableMap<Integer, String> builds = buildsByTag.get(tagName);
+        return builds == null ? null : builds.get(buildNumber);
+    }
+
+    /** @return The names of all tags which have been built, in alphabetical order. */
+    public synchronized List<String> getTagNames() {
+        load();
+        return new ArrayList<>(buildsByTag.keySet());
+    }
+
+    /**
+     * Records that a build built the given tag.
+     *
+     * @param commit The commit that was built, or {@code null} if unknown.
+     */
+    synchronized void add(String tagName, int buildNumber, String commit) throws IOException {
+        load();
+        append(String.join("\t", ADDED, Integer.toString(buildNumber), commit == null ? NO_COMMIT : commit,
+                tagName));
+        put(tagName, buildNumber, commit);
+    }
+
+    /** Removes a deleted build from the index. */
+    synchronized void remove(int buildNumber) throws IOException {
+        if (buildsByTag == null && !getFile().isFile()) {
+            // This job has never recorded a tag
+            return;
+        }
+        load();
+        if (tagsByBuild.containsKey(buildNumber)) {
+            append(String.join("\t", DELETED, Integer.toString(buildNumber)));
+            delete(buildNumber);
+        }
+    }
+
+    private void put(String tagName, int buildNumber, String commit) {
+        NavigableMap<Integer, String> builds = buildsByTag.get(tagName);
+        if (builds == null) {
+            builds = new TreeMap<>(Collections.reverseOrder());
+            buildsByTag.put(tagName, builds);
+        }
+        builds.put(buildNumber, commit);
+        Set<String> tags = tagsByBuild.get(buildNumber);
+        if (tags == null) {
+            tags = new HashSet<>(1);
+            tagsByBuild.put(buildNumber, tags);
+        }
+        tags.add(tagName);
+    }
+
+    private void delete(int buildNumber) {
+        Set<String> tags = tagsByBuild.remove(buildNumber);
+        if (tags == null) {
+            return;
+        }
+        for (String tagName : tags) {
+            NavigableMap<Integer, String> builds = buildsByTag.get(tagName);
+            builds.remove(buildNumber);
+            if (builds.isEmpty()) {
+                buildsByTag.remove(tagName);
+            }
+        }
+    }
+
+    private void append(String line) throws IOException {
+        Files.write(getFile().toPath(), (line + "\n").getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private void load() {
+        if (buildsByTag != null) {
+            return;
+        }
+        buildsByTag = new TreeMap<>();
+        tagsByBuild = new HashMap<>();
+        File file = getFile();
+        if (!file.isFile()) {
+            return;
+        }
+
+        int lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                lines++;
+                String[] fields = line.split("\t", 4);
+                try {
+                    if (fields.length == 4 && ADDED.equals(fields[0])) {
+                        put(fields[3], Integer.parseInt(fields[1]), NO_COMMIT.equals(fields[2]) ? null : fields[2]);
+                    } else if (fields.length == 2 && DELETED.equals(fields[0])) {
+                        delete(Integer.parseInt(fields[1]));
+                    }
+                } catch (NumberFormatException e) {
+                    // Ignore lines which were only partly written, e.g. due to a crash
+                    LOGGER.fine(String.format("Ignoring malformed line in %s: %s", file, line));
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, String.format("Could not load git tag index %s", file), e);
+            return;
+        }
+
+        int entries = 0;
+        for (Set<String> tags : tagsByBuild.values()) {
+            entries += tags.size();
+        }
+        if (lines - entries >= Math.max(MIN_OBSOLETE_LINES, entries)) {
+            compact();
+        }
+    }
+
+    /** Rewrites the log with only the current entries. */
+    private void compact() {
+        try {
+            AtomicFileWriter writer = new AtomicFileWriter(getFile(), "UTF-8");
+            try {
+                write(writer);
+                writer.commit();
+            } finally {
+                writer.abort();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, String.format("Could not compact git tag index for %s", job.get()), e);
+        }
+    }
+
+    private void write(Writer writer) throws IOException {
+        for (Map.Entry<String, NavigableMap<Integer, String>> tag : buildsByTag.entrySet()) {
+            for (Map.Entry<Integer, String> build : tag.getValue().descendingMap().entrySet()) {
+                String commit = build.getValue() == null ? NO_COMMIT : build.getValue();
+                writer.write(String.join("\t", ADDED, build.getKey().toString(), commit, tag.getKey()));
+                writer.write('\n');
+            }
+        }
+    }
+
+    /** Removes deleted builds from the index of their job. */
+    @Extension
+    public static class DeletedBuildListener extends RunListener<Run<?, ?>> {
+
+        @Override
+        public void onDeleted(Run<?, ?> run) {
+            try {
+                forJob(run.getParent()).remove(run.getNumber());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, String.format("Could not remove %s from git tag index", run), e);
+            }
+        }
+    }
+
+}
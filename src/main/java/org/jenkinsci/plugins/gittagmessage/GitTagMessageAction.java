@@ -1,11 +1,40 @@
 package org.jenkinsci.plugins.gittagmessage;
 
 import hudson.EnvVars;
+import hudson.Util;
+import hudson.XmlFile;
 import hudson.model.AbstractBuild;
 import hudson.model.EnvironmentContributingAction;
+import hudson.model.Run;
+import jenkins.model.RunAction2;
 
-/** Exports the message text associated with a git tag used for a build. */
-public class GitTagMessageAction implements EnvironmentContributingAction {
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Exports the message text associated with a git tag used for a build.
+ * <p>
+ * As tag messages can be long, the message is stored in a separate file in the build directory, rather than in the
+ * build record itself, and is only loaded when needed. The same goes for the messages of all tags on the commit, if
+ * they were read.
+ */
+public class GitTagMessageAction implements EnvironmentContributingAction, RunAction2 {
+
+    private static final Logger LOGGER = Logger.getLogger(GitTagMessageAction.class.getName());
 
     /** The name of the environment variable this plugin exports for a git tag message. */
     static final String ENV_VAR_NAME_MESSAGE = "GIT_TAG_MESSAGE";
@@ -13,21 +42,352 @@ public class GitTagMessageAction implements EnvironmentContributingAction {
     /** The name of the environment variable this plugin exports for a git tag name. */
     static final String ENV_VAR_NAME_TAG = "GIT_TAG_NAME";
 
-    private final String tagMessage;
+    /** The name of the environment variable this plugin exports for the names of all tags on the commit. */
+    static final String ENV_VAR_NAME_TAGS = "GIT_TAG_NAMES";
+
+    /** The name of the environment variable this plugin exports for the path of a file containing the tag message. */
+    static final String ENV_VAR_NAME_MESSAGE_FILE = "GIT_TAG_MESSAGE_FILE";
+
+    /** Appended to the tag message exported inline, if it was truncated; takes the full size and SHA-256 hash. */
+    private static final String TRUNCATION_MARKER = "\n[Truncated; the full message is %d bytes, with SHA-256 %s]";
+
+    /** The name of the file in the build directory in which the tag message is stored. */
+    static final String MESSAGE_FILE_NAME = "git-tag-message.txt";
+
+    /** The name of the file in which the message is stored, if there is more than one tag for the build. */
+    private static final String NUMBERED_MESSAGE_FILE_NAME = "git-tag-message-%d.txt";
+
+    /** The name of the file in which the messages of all tags on the commit are stored, matching the message file. */
+    private static final String TAG_MESSAGES_FILE_NAME = "git-tag-messages%s.xml";
+
+    /** Held while choosing a message file name, so that two tags of the same build can't choose the same one. */
+    private static final Object FILE_NAME_LOCK = new Object();
+
+    /**
+     * The tag message, if it could not be written to a separate file.
+     * Builds recorded by older versions of this plugin also have the message here, until they are migrated on load.
+     */
+    private String tagMessage;
     private final String tagName;
 
+    /** The SHA-1 of the commit that was built, or {@code null} if unknown. */
+    private String commit;
+
+    /** Whether the tag message has been stored in the build directory. */
+    private boolean messageInFile;
+
+    /** The name of the file in the build directory with the tag message, or {@code null} for the default name. */
+    private String messageFileName;
+
+    /** Appended to the names of the exported variables, or {@code null} if only the plain names are exported. */
+    private String variableSuffix;
+
+    /** Path to a copy of the tag message in the workspace, or {@code null} if none was written. */
+    private String messageFilePath;
+
+    /** The directory within the workspace that the repository was checked out to, or {@code null} for the root. */
+    private String checkoutDirectory;
+
+    /** Further details about the tag, or {@code null} if they weren't determined when the tag was looked up. */
+    private TagDetails details;
+
+    /** Maximum number of bytes of the tag message to export inline, or zero if there is no limit. */
+    private int maxInlineMessageBytes;
+
+    /** Whether the messages of the tags in {@link #details} have been stored in the build directory. */
+    private boolean tagMessagesInFile;
+
+    private transient Run<?, ?> run;
+    private transient volatile SoftReference<String> cachedMessage;
+    private transient volatile SoftReference<Map<String, String>> cachedTagMessages;
+
     public GitTagMessageAction(String tagName, String tagMessage) {
         this.tagMessage = tagMessage;
         this.tagName = tagName;
     }
 
+    public void onAttached(Run<?, ?> r) {
+        run = r;
+        moveMessageToFile();
+    }
+
+    public void onLoad(Run<?, ?> r) {
+        run = r;
+        // Migrate builds which have the message stored inline; until the build is saved again, it'll still be there on
+        // each load, but the files will already have been written
+        moveMessageToFile();
+    }
+
+    /**
+     * Writes the tag message, and the messages of all tags on the commit, to files in the build directory, so they
+     * don't need to be stored in the build record.
+     */
+    private void moveMessageToFile() {
+        String message = tagMessage;
+        Map<String, String> tagMessages = getInlineTagMessages();
+        if (message == null && tagMessages.isEmpty()) {
+            return;
+        }
+        // Parallel Pipeline branches may check out several repositories at once, so reserve the file name before
+        // anyone else can
+        synchronized (FILE_NAME_LOCK) {
+            messageFileName = chooseMessageFileName();
+        }
+
+        if (message != null) {
+            try {
+                writeIfChanged(getMessageFile(), message.getBytes(StandardCharsets.UTF_8));
+                cachedMessage = new SoftReference<>(message);
+                messageInFile = true;
+                tagMessage = null;
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, String.format("Could not store tag message for %s; will keep it inline",
+                        run), e);
+            }
+        }
+        if (!tagMessages.isEmpty()) {
+            try {
+                XmlFile file = getTagMessagesFile();
+                if (!file.exists() || !tagMessages.equals(file.read())) {
+                    file.write(tagMessages);
+                }
+                List<TagEntry> tags = new ArrayList<>();
+                for (TagEntry tag : details.getTags()) {
+                    tags.add(tag.withMessage(null));
+                }
+                cachedTagMessages = new SoftReference<>(tagMessages);
+                details = details.withTags(tags);
+                tagMessagesInFile = true;
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, String.format("Could not store tag messages for %s; will keep them inline",
+                        run), e);
+            }
+        }
+    }
+
+    /** Writes the given file, unless it already has the given content, e.g. from migrating this build before. */
+    private static void writeIfChanged(File file, byte[] content) throws IOException {
+        if (!file.isFile() || file.length() != content.length
+                || !Arrays.equals(Files.readAllBytes(file.toPath()), content)) {
+            Files.write(file.toPath(), content);
+        }
+    }
+
+    /** @return The messages of the tags in the details which are still stored inline, keyed by tag name. */
+    private Map<String, String> getInlineTagMessages() {
+        Map<String, String> messages = new LinkedHashMap<>();
+        if (details != null && details.getTags() != null && !tagMessagesInFile) {
+            for (TagEntry tag : details.getTags()) {
+                if (tag.getMessage() != null) {
+                    messages.put(tag.getName(), tag.getMessage());
+                }
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * @return A file name which isn't used or reserved by any other tag of the build, in case the build has several
+     *         checkouts.
+     */
+    private String chooseMessageFileName() {
+        if (messageFileName != null || messageInFile) {
+            // Builds recorded by older versions of this plugin may have stored the message under the default name
+            return messageFileName;
+        }
+        Set<String> used = new HashSet<>();
+        for (GitTagMessageAction action : run.getActions(GitTagMessageAction.class)) {
+            if (action != this && (action.messageInFile || action.messageFileName != null)) {
+                used.add(action.getMessageFile().getName());
+            }
+        }
+        String name = MESSAGE_FILE_NAME;
+        for (int i = 2; used.contains(name); i++) {
+            name = String.format(NUMBERED_MESSAGE_FILE_NAME, i);
+        }
+        return name;
+    }
+
+    private File getMessageFile() {
+        return new File(run.getRootDir(), messageFileName == null ? MESSAGE_FILE_NAME : messageFileName);
+    }
+
+    /** @return The file with the messages of all tags on the commit, numbered in the same way as the message file. */
+    private XmlFile getTagMessagesFile() {
+        String number = getMessageFile().getName().replaceFirst("^git-tag-message(-\\d+)?\\.txt$", "$1");
+        return new XmlFile(Run.XSTREAM2, new File(run.getRootDir(), String.format(TAG_MESSAGES_FILE_NAME, number)));
+    }
+
+    /** @return The name of the git tag, or {@code null} if unknown. */
+    public String getTagName() {
+        return tagName;
+    }
+
+    /** @return The message of the git tag, or {@code null} if it had none, or it could not be loaded. */
+    public String getTagMessage() {
+        String message = tagMessage;
+        if (message != null || !messageInFile || run == null) {
+            return message;
+        }
+
+        SoftReference<String> ref = cachedMessage;
+        message = ref == null ? null : ref.get();
+        if (message == null) {
+            try {
+                message = new String(Files.readAllBytes(getMessageFile().toPath()), StandardCharsets.UTF_8);
+                cachedMessage = new SoftReference<>(message);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, String.format("Could not load tag message for %s", run), e);
+            }
+        }
+        return message;
+    }
+
+    /** @return The SHA-1 of the commit that was built, or {@code null} if unknown. */
+    public String getCommit() {
+        return commit;
+    }
+
+    void setCommit(String commit) {
+        this.commit = commit;
+    }
+
+    /**
+     * @return Further details about the tag, where the tags read from the commit don't include their messages; or
+     *         {@code null} if they weren't determined.
+     */
+    TagDetails getDetails() {
+        return details;
+    }
+
+    /**
+     * @return Every tag pointing to the commit, including their messages, or {@code null} if they weren't read. The
+     *         messages are {@code null} if they could not be loaded.
+     */
+    List<TagEntry> getTags() {
+        List<TagEntry> tags = details == null ? null : details.getTags();
+        if (tags == null || !tagMessagesInFile || run == null) {
+            return tags;
+        }
+
+        SoftReference<Map<String, String>> ref = cachedTagMessages;
+        Map<String, String> messages = ref == null ? null : ref.get();
+        if (messages == null) {
+            try {
+                @SuppressWarnings("unchecked")
+                Map<String, String> loaded = (Map<String, String>) getTagMessagesFile().read();
+                messages = loaded;
+                cachedTagMessages = new SoftReference<>(messages);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, String.format("Could not load tag messages for %s", run), e);
+                return tags;
+            }
+        }
+        List<TagEntry> withMessages = new ArrayList<>(tags.size());
+        for (TagEntry tag : tags) {
+            withMessages.add(tag.withMessage(messages.get(tag.getName())));
+        }
+        return withMessages;
+    }
+
+    void setDetails(TagDetails details) {
+        this.details = details;
+    }
+
+    void setMessageFilePath(String messageFilePath) {
+        this.messageFilePath = messageFilePath;
+    }
+
+    void setMaxInlineMessageBytes(int maxInlineMessageBytes) {
+        this.maxInlineMessageBytes = maxInlineMessageBytes;
+    }
+
+    /**
+     * @return The suffix identifying the repository or checkout directory this tag was found in, which is appended to
+     *         the names of the exported variables, or {@code null} if there is none.
+     */
+    public String getVariableSuffix() {
+        return variableSuffix;
+    }
+
+    void setVariableSuffix(String variableSuffix) {
+        this.variableSuffix = variableSuffix;
+    }
+
+    /** @return The directory within the workspace that the repository was checked out to, or {@code null}. */
+    public String getCheckoutDirectory() {
+        return checkoutDirectory;
+    }
+
+    void setCheckoutDirectory(String checkoutDirectory) {
+        this.checkoutDirectory = checkoutDirectory;
+    }
+
     public void buildEnvVars(AbstractBuild<?, ?> build, EnvVars env) {
+        String tagMessage = getTagMessage();
         if (tagMessage != null) {
-            env.put(ENV_VAR_NAME_MESSAGE, tagMessage);
+            put(env, ENV_VAR_NAME_MESSAGE, truncate(tagMessage, maxInlineMessageBytes));
+        }
+        if (messageFilePath != null) {
+            put(env, ENV_VAR_NAME_MESSAGE_FILE, messageFilePath);
         }
         if (tagName != null) {
-            env.put(ENV_VAR_NAME_TAG, tagName);
+            put(env, ENV_VAR_NAME_TAG, tagName);
+        }
+        if (details != null && !details.getTagsAtCommit().isEmpty()) {
+            // Tag names can't contain spaces
+            put(env, ENV_VAR_NAME_TAGS, String.join(" ", details.getTagsAtCommit()));
+        }
+    }
+
+    /** Exports a variable under its plain name and, if this tag has a suffix, also under its namespaced name. */
+    private void put(EnvVars env, String name, String value) {
+        env.put(name, value);
+        if (variableSuffix != null) {
+            env.put(getVariableName(name, variableSuffix), value);
+        }
+    }
+
+    /** @return The name of the given variable for the repository or checkout directory with the given suffix. */
+    static String getVariableName(String name, String variableSuffix) {
+        return variableSuffix == null ? name : name + '_' + variableSuffix;
+    }
+
+    /**
+     * Limits the size of a message, so that it doesn't bloat the environment of every process started by a build.
+     *
+     * @param maxBytes The maximum number of bytes to export, or zero if there is no limit.
+     * @return The message, or as much of it as fits within {@code maxBytes} bytes along with a note of the size and
+     *         hash of the full message; if the limit is too small for the note, the message is just cut short.
+     */
+    static String truncate(String message, int maxBytes) {
+        if (maxBytes <= 0) {
+            return message;
+        }
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length <= maxBytes) {
+            return message;
+        }
+
+        String hash;
+        try {
+            hash = Util.toHexString(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        String marker = String.format(TRUNCATION_MARKER, bytes.length, hash);
+        int markerBytes = marker.getBytes(StandardCharsets.UTF_8).length;
+        if (markerBytes >= maxBytes) {
+            marker = "";
+            markerBytes = 0;
+        }
+
+        // Leave room for the marker, and avoid splitting a multi-byte character
+        int end = maxBytes - markerBytes;
+        while (end > 0 && (bytes[end] & 0xC0) == 0x80) {
+            end--;
         }
+        return new String(bytes, 0, end, StandardCharsets.UTF_8) + marker;
     }
 
     public String getIconFileName() {
@@ -42,4 +402,4 @@ public class GitTagMessageAction implements EnvironmentContributingAction {
         return null;
     }
 
-}
\ No newline at end of file
+}
@@ -1,6 +1,9 @@
 package org.jenkinsci.plugins.gittagmessage;
 
+import hudson.EnvVars;
 import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.Computer;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.plugins.git.Branch;
@@ -9,13 +12,29 @@ import hudson.plugins.git.GitSCM;
 import hudson.plugins.git.Revision;
 import hudson.plugins.git.extensions.GitSCMExtension;
 import hudson.plugins.git.extensions.GitSCMExtensionDescriptor;
+import hudson.plugins.git.extensions.impl.RelativeTargetDirectory;
 import hudson.plugins.git.util.BuildData;
+import hudson.slaves.WorkspaceList;
+import jenkins.plugins.git.AbstractGitSCMSource;
+import jenkins.scm.api.SCMRevision;
+import jenkins.scm.api.SCMRevisionAction;
+import jenkins.scm.api.mixin.TagSCMHead;
 import org.jenkinsci.plugins.gitclient.GitClient;
+import org.jenkinsci.plugins.gitclient.JGitApacheTool;
+import org.jenkinsci.plugins.gitclient.JGitTool;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -23,7 +42,10 @@ import java.util.regex.Pattern;
 import static hudson.Util.fixEmpty;
 import static hudson.Util.fixEmptyAndTrim;
 import static org.jenkinsci.plugins.gittagmessage.GitTagMessageAction.ENV_VAR_NAME_MESSAGE;
+import static org.jenkinsci.plugins.gittagmessage.GitTagMessageAction.ENV_VAR_NAME_MESSAGE_FILE;
 import static org.jenkinsci.plugins.gittagmessage.GitTagMessageAction.ENV_VAR_NAME_TAG;
+import static org.jenkinsci.plugins.gittagmessage.GitTagMessageAction.ENV_VAR_NAME_TAGS;
+import static org.jenkinsci.plugins.gittagmessage.GitTagMessageAction.getVariableName;
 
 public class GitTagMessageExtension extends GitSCMExtension {
 
@@ -31,6 +53,21 @@ public class GitTagMessageExtension extends GitSCMExtension {
     private static final Pattern TAG_OFFSET_MATCHER = Pattern.compile("(?<tag>.+)-[0-9]+-g[0-9A-Fa-f]{7,}$");
 
     private boolean useMostRecentTag;
+    private boolean resolveOnAgent;
+    private boolean resolveInProcess;
+    private boolean exportMessageFile;
+    private int maxInlineMessageBytes;
+    private String tagMatchPatterns;
+    private String tagExcludePatterns;
+    private int describeCandidates;
+    private boolean logTimings;
+    private boolean namespaceVariables;
+    private int maxShallowDepth;
+    private boolean exportAllTags;
+    private TagOrder primaryTagOrder;
+    private int lookupTimeoutSeconds;
+    private int maxDescribeDepth;
+    private boolean useNearestTagIndex;
 
     @DataBoundConstructor
     public GitTagMessageExtension() {
@@ -46,11 +83,156 @@ public class GitTagMessageExtension extends GitSCMExtension {
         return useMostRecentTag;
     }
 
+    @DataBoundSetter
+    public void setResolveOnAgent(boolean value) {
+        resolveOnAgent = value;
+    }
+
+    public boolean isResolveOnAgent() {
+        return resolveOnAgent;
+    }
+
+    @DataBoundSetter
+    public void setResolveInProcess(boolean value) {
+        resolveInProcess = value;
+    }
+
+    public boolean isResolveInProcess() {
+        return resolveInProcess;
+    }
+
+    @DataBoundSetter
+    public void setExportMessageFile(boolean value) {
+        exportMessageFile = value;
+    }
+
+    public boolean isExportMessageFile() {
+        return exportMessageFile;
+    }
+
+    @DataBoundSetter
+    public void setMaxInlineMessageBytes(int value) {
+        maxInlineMessageBytes = Math.max(0, value);
+    }
+
+    public int getMaxInlineMessageBytes() {
+        return maxInlineMessageBytes;
+    }
+
+    @DataBoundSetter
+    public void setTagMatchPatterns(String value) {
+        tagMatchPatterns = fixEmptyAndTrim(value);
+    }
+
+    public String getTagMatchPatterns() {
+        return tagMatchPatterns;
+    }
+
+    @DataBoundSetter
+    public void setTagExcludePatterns(String value) {
+        tagExcludePatterns = fixEmptyAndTrim(value);
+    }
+
+    public String getTagExcludePatterns() {
+        return tagExcludePatterns;
+    }
+
+    @DataBoundSetter
+    public void setDescribeCandidates(int value) {
+        describeCandidates = Math.max(0, value);
+    }
+
+    public int getDescribeCandidates() {
+        return describeCandidates;
+    }
+
+    @DataBoundSetter
+    public void setLogTimings(boolean value) {
+        logTimings = value;
+    }
+
+    public boolean isLogTimings() {
+        return logTimings;
+    }
+
+    @DataBoundSetter
+    public void setNamespaceVariables(boolean value) {
+        namespaceVariables = value;
+    }
+
+    public boolean isNamespaceVariables() {
+        return namespaceVariables;
+    }
+
+    @DataBoundSetter
+    public void setMaxShallowDepth(int value) {
+        maxShallowDepth = Math.max(0, value);
+    }
+
+    public int getMaxShallowDepth() {
+        return maxShallowDepth;
+    }
+
+    @DataBoundSetter
+    public void setExportAllTags(boolean value) {
+        exportAllTags = value;
+    }
+
+    public boolean isExportAllTags() {
+        return exportAllTags;
+    }
+
+    @DataBoundSetter
+    public void setPrimaryTagOrder(TagOrder value) {
+        primaryTagOrder = value == TagOrder.DESCRIBE ? null : value;
+    }
+
+    public TagOrder getPrimaryTagOrder() {
+        return primaryTagOrder == null ? TagOrder.DESCRIBE : primaryTagOrder;
+    }
+
+    @DataBoundSetter
+    public void setLookupTimeoutSeconds(int value) {
+        lookupTimeoutSeconds = Math.max(0, value);
+    }
+
+    public int getLookupTimeoutSeconds() {
+        return lookupTimeoutSeconds;
+    }
+
+    @DataBoundSetter
+    public void setMaxDescribeDepth(int value) {
+        maxDescribeDepth = Math.max(0, value);
+    }
+
+    public int getMaxDescribeDepth() {
+        return maxDescribeDepth;
+    }
+
+    @DataBoundSetter
+    public void setUseNearestTagIndex(boolean value) {
+        useNearestTagIndex = value;
+    }
+
+    public boolean isUseNearestTagIndex() {
+        return useNearestTagIndex;
+    }
+
+    /** @return How to choose between all of the tags on a commit, or {@code null} if they needn't all be read. */
+    private TagOrder getAllTagsOrder() {
+        return exportAllTags || primaryTagOrder != null ? getPrimaryTagOrder() : null;
+    }
+
+    private DescribeOptions getDescribeOptions() {
+        return new DescribeOptions(tagMatchPatterns, tagExcludePatterns, describeCandidates);
+    }
+
     @Override
     public void onCheckoutCompleted(GitSCM scm, Run<?, ?> build, GitClient git, TaskListener listener)
             throws IOException, InterruptedException, GitException {
-        // Now that checkout is complete, grab the commit info that we'll be working with
-        BuildData buildData = build.getAction(BuildData.class);
+        // Now that checkout is complete, grab the commit info that we'll be working with.
+        // The build may have several checkouts, so make sure we get the info for this one
+        BuildData buildData = scm.getBuildData(build);
         if (buildData == null || buildData.getLastBuiltRevision() == null) {
             LOGGER.info("Git build information is not set; will not search for git tag message.");
             return;
@@ -76,75 +258,518 @@ public class GitTagMessageExtension extends GitSCMExtension {
             }
         }
 
+        // If there are several checkouts, we need to tell their tags apart
+        String variableSuffix = namespaceVariables ? getVariableSuffix(scm) : null;
+
+        // Any git processes we start ourselves need to run in the build's environment, e.g. for credentials
+        EnvVars environment = build.getEnvironment(listener);
+        lookUpAndExportTag(scm, build, git, buildData, commit, branchName, variableSuffix, environment, listener);
+    }
+
+    /**
+     * Looks up the tag info for the commit that was checked out, and adds the action exporting it to the build.
+     *
+     * @param branchName The name of the branch that was built, or {@code null} if unknown.
+     * @param variableSuffix Appended to the names of the exported variables, or {@code null} for the plain names.
+     * @param environment The environment of the build, in which to run git.
+     */
+    private void lookUpAndExportTag(GitSCM scm, Run<?, ?> build, GitClient git, BuildData buildData, String commit,
+                                    String branchName, String variableSuffix, EnvVars environment,
+                                    TaskListener listener)
+            throws IOException, InterruptedException {
         // If the refspec used explicitly searches for tags, then we should use the tag name that triggered this build.
-        // If we don't do this, i.e. we just run "git describe" on the commit hash, it may return a different, newer tag
-        String tagName;
-        if (branchName != null && branchName.contains("/tags/")) {
-            int index = branchName.indexOf("/tags/");
-            tagName = branchName.substring(index + "/tags/".length());
+        // If we don't do this, i.e. we just run "git describe" on the commit hash, it may return a different, newer tag.
+        // Similarly, multibranch builds of a tag already know which tag was discovered when the project was indexed
+        TagSCMHead tagHead = getTagHead(build, commit);
+        int tagsIndex = branchName == null ? -1 : branchName.indexOf("/tags/");
+        String requestedTag = tagHead != null ? tagHead.getName()
+                : tagsIndex == -1 ? null : branchName.substring(tagsIndex + "/tags/".length());
+
+        // Shallow clones usually lack the tags, and the history needed to find the nearest one, so fetch just those.
+        // This also reads the tag refs, once any tags have been fetched, so that we can check for cached tag info;
+        // if a tag was requested, and we don't need the others on the commit, only that tag's ref needs to be read.
+        // The tag patterns only limit which tag is chosen, so they don't apply to the tag which triggered the build
+        DescribeOptions describeOptions = requestedTag == null ? getDescribeOptions() : DescribeOptions.NONE;
+        String tagRefsFingerprint = ShallowTagFetcher.fetchTags(scm, git, commit, requestedTag,
+                useMostRecentTag && requestedTag == null ? maxShallowDepth : 0, describeOptions,
+                getAllTagsOrder() != null, environment, listener);
+
+        // Many builds may check out the same commit, so check whether we've already looked up its tag info.
+        // This is only valid as long as the tags in the repo haven't changed since, e.g. due to this build's fetch,
+        // or, for a requested tag, as long as that tag hasn't been moved or re-created with a new message
+        // "git describe" has no way to limit how far back it searches, so we need to search in-process to do that.
+        // Jobs using JGit have no git executable for us to run with the describe options, so also search in-process.
+        // The in-process search, and the nearest tag index, may choose a different nearest tag to "git describe", so
+        // they're cached separately
+        FilePath workTree = git.getWorkTree();
+        Computer computer = workTree.toComputer();
+        String gitExe = scm.getGitExe(computer == null ? null : computer.getNode(), listener);
+        final boolean inProcess = resolveInProcess || tagHead != null || maxDescribeDepth > 0
+                || !describeOptions.isEmpty() && !isCommandLineGit(gitExe);
+        TagInfoCache.Key key = new TagInfoCache.Key(buildData.getRemoteUrls(), commit, useMostRecentTag, requestedTag,
+                describeOptions, getAllTagsOrder(), maxDescribeDepth, inProcess, useNearestTagIndex);
+        TagInfoCache.Loader loader = LookupBudget.withTimeout(() -> lookUpTag(build, git, gitExe, commit, requestedTag,
+                describeOptions, variableSuffix, inProcess, environment, listener), lookupTimeoutSeconds,
+                () -> lookUpTagCheaply(git, commit, requestedTag, describeOptions), listener);
+        long lookupStart = ResolutionTimings.start();
+        TagInfo tag = tagRefsFingerprint == null ? loader.load()
+                : TagInfoCache.get().get(key, tagRefsFingerprint, lookupTimeoutSeconds, loader);
+        long lookupNanos = System.nanoTime() - lookupStart;
+
+        // Only the build which actually performed the lookup, rather than using a cached result, has timings
+        ResolutionTimings timings = tag.getTimings();
+        boolean cached = timings == null;
+        if (cached) {
+            timings = new ResolutionTimings();
+        }
+        try {
+            exportTag(scm, build, git, commit, variableSuffix, tag, timings, listener);
+        } finally {
+            TagResolutionMetrics.get().record(build.getParent().getFullName(), tag, timings);
+            if (logTimings) {
+                listener.getLogger().println(Messages.TimingSummary(TimeUnit.NANOSECONDS.toMillis(lookupNanos),
+                        timings.toSummary(), cached ? Messages.Cached() : Messages.Resolved()));
+            }
+        }
+    }
+
+    /** Adds the action which exports the given tag info to the build, logging what will be exported. */
+    private void exportTag(GitSCM scm, Run<?, ?> build, GitClient git, String commit, String variableSuffix,
+                           TagInfo tag, ResolutionTimings timings, TaskListener listener)
+            throws IOException, InterruptedException {
+        String tagName = tag.getName();
+        if (tagName == null) {
+            listener.getLogger().println(Messages.NoTagFound());
+            return;
+        }
+        if (!tag.exists()) {
+            listener.getLogger().println(Messages.NoTagInfoFound(tagName));
+            LOGGER.info(String.format("No tag exists for '%s'.", tagName));
+            return;
+        }
+
+        String tagMessage = tag.getMessage();
+        if (tagMessage == null) {
+            listener.getLogger().println(Messages.NoTagMessageFound(tagName));
+            LOGGER.finest(String.format("No tag message could be determined for git tag '%s'.", tagName));
+        } else {
+            listener.getLogger().println(Messages.ExportingTagMessage(
+                    getVariableName(ENV_VAR_NAME_MESSAGE, variableSuffix), tagName));
+            LOGGER.finest(String.format("Exporting tag message '%s' from tag '%s'.", tagMessage, tagName));
+        }
+
+        // Always export the tag name itself
+        listener.getLogger().println(Messages.ExportingTagName(getVariableName(ENV_VAR_NAME_TAG, variableSuffix),
+                tagName));
+        LOGGER.finest(String.format("Exporting git tag name '%s'", tagName));
+
+        // Add the action which will export the variables
+        long actionStart = ResolutionTimings.start();
+        GitTagMessageAction action = new GitTagMessageAction(tagName, tagMessage);
+        action.setCommit(commit);
+        action.setDetails(tag.getDetails());
+        action.setMaxInlineMessageBytes(maxInlineMessageBytes);
+        action.setVariableSuffix(variableSuffix);
+        action.setCheckoutDirectory(getCheckoutDirectory(scm));
+        TagDetails details = tag.getDetails();
+        if (details != null && details.getTags() != null) {
+            listener.getLogger().println(Messages.AllTagsExported(getVariableName(ENV_VAR_NAME_TAGS, variableSuffix),
+                    details.getTags().size()));
+        }
+        if (exportMessageFile && tagMessage != null) {
+            // Write the message once, so that build steps can read it without it being passed to every process
+            FilePath messageFile = writeMessageFile(git.getWorkTree(), tagMessage);
+            action.setMessageFilePath(messageFile.getRemote());
+            listener.getLogger().println(Messages.ExportingTagMessage(
+                    getVariableName(ENV_VAR_NAME_MESSAGE_FILE, variableSuffix), tagName));
+        }
+        build.addAction(action);
+        addToIndex(build, commit, tagName, tag.getDetails());
+        timings.record(ResolutionTimings.Phase.ACTION, actionStart);
+    }
+
+    /** Records the tags of the given commit in the job's index, so that the builds of a tag can be found quickly. */
+    private static void addToIndex(Run<?, ?> build, String commit, String tagName, TagDetails details) {
+        Set<String> tagNames = new LinkedHashSet<>();
+        tagNames.add(tagName);
+        if (details != null && details.getCommit().equals(commit)) {
+            tagNames.addAll(details.getTagsAtCommit());
+        }
+        try {
+            GitTagBuildIndex index = GitTagBuildIndex.forJob(build.getParent());
+            for (String name : tagNames) {
+                index.add(name, build.getNumber(), commit);
+            }
+        } catch (IOException e) {
+            LOGGER.warning(String.format("Could not add %s to the git tag index: %s", build, e.getMessage()));
+        }
+    }
+
+    /** @return The file in the workspace's temporary directory, to which the tag message was written. */
+    private static FilePath writeMessageFile(FilePath workTree, String tagMessage)
+            throws IOException, InterruptedException {
+        FilePath tempDir = WorkspaceList.tempDir(workTree);
+        tempDir.mkdirs();
+        FilePath messageFile = tempDir.child(GitTagMessageAction.MESSAGE_FILE_NAME);
+        messageFile.write(tagMessage, "UTF-8");
+        return messageFile;
+    }
+
+    /**
+     * Looks up the tag info for the given commit via git, using the configured strategy.
+     *
+     * @param gitExe The git executable used by the job on the node holding the workspace.
+     * @param requestedTag The tag name that triggered this build, or {@code null} if it should be determined.
+     * @param describeOptions Limits which tags may be chosen, if none was requested.
+     * @param variableSuffix Identifies the checkout in previous builds, or {@code null} if there's only one.
+     * @param inProcess Whether to try resolving the tag info with JGit before falling back to the git CLI.
+     * @param environment The environment to run git with.
+     * @return Info about the tag for the given commit; never {@code null}.
+     */
+    private TagInfo lookUpTag(Run<?, ?> build, GitClient git, String gitExe, String commit, String requestedTag,
+                              DescribeOptions describeOptions, String variableSuffix, boolean inProcess,
+                              EnvVars environment, TaskListener listener) throws IOException, InterruptedException {
+        TagOrder tagOrder = getAllTagsOrder();
+        // For branch builds, the nearest tag is usually the same as for the previous build, so check that first
+        GitTagMessageAction previous = requestedTag == null && useMostRecentTag
+                ? getPreviousAction(build, variableSuffix) : null;
+        String previousCommit = previous == null ? null : previous.getCommit();
+        String previousTag = previous == null ? null : previous.getTagName();
+
+        if (resolveOnAgent && !inProcess) {
+            // Run every step of the lookup, and all of the git commands, on the agent in one go
+            return git.getWorkTree().act(new TagResolutionCallable(gitExe, environment, commit, requestedTag,
+                    useMostRecentTag, useNearestTagIndex, describeOptions, tagOrder, previousCommit, previousTag));
+        }
+
+        // Read all of the tags on the commit in one go, if we need to choose between them, or export them all
+        if (tagOrder != null) {
+            ResolutionTimings timings = new ResolutionTimings();
+            long start = ResolutionTimings.start();
+            List<TagEntry> tags = readAllTags(git, commit, describeOptions);
+            timings.record(ResolutionTimings.Phase.MESSAGE, start);
+            if (tags != null && (!tags.isEmpty() || requestedTag == null && !useMostRecentTag)) {
+                return toTagInfo(commit, requestedTag, tags, tagOrder).withTimings(timings);
+            }
+        }
+
+        if (requestedTag == null && previousTag != null) {
+            requestedTag = getNearestTagSince(git, previousCommit, previousTag, commit, describeOptions);
+        }
+
+        if (inProcess) {
+            // Read the tag info directly from the repo on the agent, without starting any git processes
+            try {
+                TagInfo tag = git.withRepository(new JGitTagResolver(commit, requestedTag, useMostRecentTag,
+                        describeOptions, maxDescribeDepth));
+                if (tag.isDegraded()) {
+                    listener.getLogger().println(Messages.DescribeDepthExceeded(maxDescribeDepth));
+                    // Unlike a timeout, the same depth limit will always give the same result, so it can be cached;
+                    // the depth limit is part of the cache key, so this isn't shared with jobs with a different limit
+                    return TagInfo.NONE.withTimings(tag.getTimings());
+                }
+                return tag;
+            } catch (InterruptedIOException e) {
+                // We ran out of time, or the build was aborted, so we shouldn't try again with git
+                throw (InterruptedException) new InterruptedException(e.getMessage()).initCause(e);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warning(String.format("Resolving tag info for '%s' in-process failed; will use git instead: %s",
+                        commit, e.getMessage()));
+            }
+        }
+
+        // GitClient doesn't support "git describe" options, so we need to run git ourselves on the agent to use them
+        if (resolveOnAgent || !describeOptions.isEmpty()) {
+            // Run all of the git commands on the agent in one go, rather than one remote call per command; we've
+            // already read the tags on the commit, and checked the previous build's tag
+            return git.getWorkTree().act(new TagResolutionCallable(gitExe, environment, commit, requestedTag,
+                    useMostRecentTag, useNearestTagIndex, describeOptions, null, null, null));
+        }
+        ResolutionTimings timings = new ResolutionTimings();
+        return resolveTag(git, commit, requestedTag, useMostRecentTag, useNearestTagIndex, timings)
+                .withTimings(timings);
+    }
+
+    /**
+     * Looks up the tag info for the given commit without searching through its history, for when the full lookup
+     * takes too long: only tags pointing at the commit itself, or a nearest tag already in the index, if enabled, are
+     * found. The index doesn't take the describe options into account, so it is only used if there are none.
+     *
+     * @return Info about the tag for the given commit; never {@code null}.
+     */
+    private TagInfo lookUpTagCheaply(GitClient git, String commit, String requestedTag,
+                                     DescribeOptions describeOptions) throws InterruptedException {
+        List<TagEntry> tags = readAllTags(git, commit, describeOptions);
+        TagInfo tag = tags == null ? TagInfo.NONE : toTagInfo(commit, requestedTag, tags, getPrimaryTagOrder());
+        if (tag.getName() != null || requestedTag != null || !useMostRecentTag || !useNearestTagIndex
+                || !describeOptions.isEmpty()) {
+            return tag;
+        }
+
+        String indexedTagName = NearestTagIndex.lookup(git, commit);
+        if (indexedTagName == null || NearestTagIndex.NO_TAG.equals(indexedTagName)) {
+            return TagInfo.NONE;
+        }
+        try {
+            return git.withRepository(new JGitTagResolver(commit, indexedTagName, true, describeOptions));
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warning(String.format("Reading indexed tag '%s' failed: %s", indexedTagName, e.getMessage()));
+            return TagInfo.NONE;
+        }
+    }
+
+    /** @return Every allowed tag pointing at the given commit, or {@code null} if they could not be read. */
+    static List<TagEntry> readAllTags(GitClient git, String commit, DescribeOptions describeOptions)
+            throws InterruptedException {
+        try {
+            return git.withRepository(new CommitTagsReader(commit, describeOptions));
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warning(String.format("Reading all tags for '%s' failed; will use git instead: %s", commit,
+                    e.getMessage()));
+            return null;
+        }
+    }
+
+    /**
+     * @param requestedTag The tag name that triggered this build, which is used as the primary tag if given.
+     * @param tags Every tag pointing at the given commit.
+     * @param tagOrder Determines the primary tag, if none was requested.
+     * @return Info about the primary tag, with all of the tags attached.
+     */
+    static TagInfo toTagInfo(String commit, String requestedTag, List<TagEntry> tags, TagOrder tagOrder) {
+        TagEntry primary = null;
+        if (requestedTag == null) {
+            primary = tagOrder.select(tags);
         } else {
+            for (TagEntry tag : tags) {
+                if (tag.getName().equals(requestedTag)) {
+                    primary = tag;
+                    break;
+                }
+            }
+            if (primary == null) {
+                return TagInfo.missing(requestedTag);
+            }
+        }
+        if (primary == null) {
+            return TagInfo.NONE;
+        }
+
+        List<String> names = new ArrayList<>();
+        for (TagEntry tag : tags) {
+            names.add(tag.getName());
+        }
+        return TagInfo.found(primary.getName(), primary.getMessage()).withDetails(new TagDetails(commit,
+                primary.getTagger(), primary.getDate(), 0, names, tags));
+    }
+
+    /**
+     * @param requestedTag The tag name that triggered this build, or {@code null} if it should be determined.
+     * @param useMostRecentTag Whether the nearest tag in history may be used.
+     * @param useNearestTagIndex Whether to look up, and record, the nearest tag in the repository's index.
+     * @param timings Records the time spent in each phase.
+     * @return Info about the tag for the given commit; never {@code null}.
+     */
+    static TagInfo resolveTag(GitClient git, String commit, String requestedTag, boolean useMostRecentTag,
+                              boolean useNearestTagIndex, ResolutionTimings timings) throws InterruptedException {
+        String tagName = requestedTag;
+        if (tagName == null) {
             // This build was triggered for a named branch, or for a particular commit hash
-            tagName = getTagName(git, commit, useMostRecentTag);
+            tagName = getTagName(git, commit, useMostRecentTag, useNearestTagIndex, timings);
             if (tagName == null) {
-                listener.getLogger().println(Messages.NoTagFound());
-                return;
+                return TagInfo.NONE;
             }
         }
 
+        return readTagInfo(git, tagName, timings);
+    }
+
+    /** @return Info about the given tag, including its message; never {@code null}. */
+    static TagInfo readTagInfo(GitClient git, String tagName, ResolutionTimings timings) throws InterruptedException {
         // Attempt to retrieve the tag message for the discovered tag name
+        long start = ResolutionTimings.start();
         try {
             String tagMessage = git.getTagMessage(tagName); // "git tag -l <tag> -n10000"
             // Empty or whitespace-only values aren't exported to the environment by Jenkins, so we can trim the message
-            tagMessage = fixEmptyAndTrim(tagMessage);
-            if (tagMessage == null) {
-                listener.getLogger().println(Messages.NoTagMessageFound(tagName));
-                LOGGER.finest(String.format("No tag message could be determined for git tag '%s'.", tagName));
-            } else {
-                listener.getLogger().println(Messages.ExportingTagMessage(ENV_VAR_NAME_MESSAGE, tagName));
-                LOGGER.finest(String.format("Exporting tag message '%s' from tag '%s'.", tagMessage, tagName));
+            return TagInfo.found(tagName, fixEmptyAndTrim(JGitTagResolver.limitMessage(tagMessage)));
+        } catch (StringIndexOutOfBoundsException e) {
+            // git-client currently throws this exception if you ask for the message of a non-existent tag
+            return TagInfo.missing(tagName);
+        } finally {
+            timings.record(ResolutionTimings.Phase.MESSAGE, start);
+        }
+    }
+
+    /**
+     * @return The action with the tag found for the same checkout by the previous build, if it recorded both the
+     *         commit and the tag; otherwise {@code null}.
+     */
+    private static GitTagMessageAction getPreviousAction(Run<?, ?> build, String variableSuffix) {
+        Run<?, ?> previousBuild = build.getPreviousBuild();
+        if (previousBuild == null) {
+            return null;
+        }
+        for (GitTagMessageAction action : previousBuild.getActions(GitTagMessageAction.class)) {
+            if (Objects.equals(action.getVariableSuffix(), variableSuffix)) {
+                return action.getCommit() == null || action.getTagName() == null ? null : action;
             }
+        }
+        return null;
+    }
 
-            // Always export the tag name itself
-            listener.getLogger().println(Messages.ExportingTagName(ENV_VAR_NAME_TAG, tagName));
-            LOGGER.finest(String.format("Exporting git tag name '%s'", tagName));
+    /**
+     * @param previousCommit The commit checked out by a previous build.
+     * @param previousTag The nearest tag found for that commit.
+     * @return The nearest tag found by the previous build, if it's also the nearest tag for the given commit, i.e.
+     *         none of the commits since then have been tagged; otherwise {@code null}.
+     */
+    static String getNearestTagSince(GitClient git, String previousCommit, String previousTag, String commit,
+                                     DescribeOptions describeOptions) throws InterruptedException {
+        try {
+            String tagName = git.withRepository(new IncrementalTagResolver(previousCommit, previousTag, commit,
+                    describeOptions));
+            if (tagName != null) {
+                LOGGER.fine(String.format("Nearest tag for '%s' is unchanged since '%s'.", commit, previousCommit));
+            }
+            return tagName;
+        } catch (IOException | RuntimeException e) {
+            // The previous build may have been for a different repo, or history may have been rewritten since
+            LOGGER.fine(String.format("Could not reuse nearest tag from '%s': %s", previousCommit, e.getMessage()));
+            return null;
+        }
+    }
 
-            // Add the action which will export the variables
-            build.addAction(new GitTagMessageAction(tagName, tagMessage));
-        } catch (StringIndexOutOfBoundsException e) {
-            // git-client currently throws this exception if you ask for the message of a non-existent tag
-            listener.getLogger().println(Messages.NoTagInfoFound(tagName));
-            LOGGER.info(String.format("No tag exists for '%s'.", tagName));
+    /**
+     * @return The suffix for the variables exported for this checkout, derived from its checkout directory if set,
+     *         otherwise from the name of its repository; or {@code null} if neither is known.
+     */
+    private static String getVariableSuffix(GitSCM scm) {
+        String name = getCheckoutDirectory(scm);
+        if (name == null && !scm.getUserRemoteConfigs().isEmpty()) {
+            name = getRepositoryName(scm.getUserRemoteConfigs().get(0).getUrl());
+        }
+        return toVariableSuffix(name);
+    }
+
+    /** @return The directory within the workspace that the given SCM checks out to, or {@code null} for the root. */
+    private static String getCheckoutDirectory(GitSCM scm) {
+        RelativeTargetDirectory targetDirectory = scm.getExtensions().get(RelativeTargetDirectory.class);
+        return targetDirectory == null ? null : fixEmptyAndTrim(targetDirectory.getRelativeTargetDir());
+    }
+
+    /** @return The last path segment of the given repository URL, without any ".git" extension. */
+    static String getRepositoryName(String url) {
+        if (url == null) {
+            return null;
+        }
+        // Handle URLs, scp-like "host:path" locations, and local paths on any OS
+        String name = url.replaceAll("[/\\\\]+$", "");
+        int start = Math.max(name.lastIndexOf('/'), Math.max(name.lastIndexOf(':'), name.lastIndexOf('\\')));
+        name = name.substring(start + 1);
+        return name.endsWith(".git") ? name.substring(0, name.length() - ".git".length()) : name;
+    }
+
+    /** @return The given name converted to a form suitable for use in a variable name, or {@code null} if empty. */
+    static String toVariableSuffix(String name) {
+        if (name == null) {
+            return null;
         }
+        String suffix = name.toUpperCase(Locale.ENGLISH).replaceAll("[^A-Z0-9]+", "_").replaceAll("^_|_$", "");
+        return fixEmpty(suffix);
+    }
+
+    /** @return The tag head this multibranch build was created for, if it's for the given commit, else {@code null}. */
+    private static TagSCMHead getTagHead(Run<?, ?> build, String commit) {
+        SCMRevisionAction action = build.getAction(SCMRevisionAction.class);
+        SCMRevision revision = action == null ? null : action.getRevision();
+        if (!(revision instanceof AbstractGitSCMSource.SCMRevisionImpl) || !(revision.getHead() instanceof TagSCMHead)) {
+            return null;
+        }
+        // A Pipeline may check out other repos, too, so make sure this is the revision the build was created for
+        if (!((AbstractGitSCMSource.SCMRevisionImpl) revision).getHash().equals(commit)) {
+            return null;
+        }
+        return (TagSCMHead) revision.getHead();
+    }
+
+    /** @return {@code true} if the given git executable is the git command line, rather than one of the JGit tools. */
+    static boolean isCommandLineGit(String gitExe) {
+        return !JGitTool.MAGIC_EXENAME.equalsIgnoreCase(gitExe)
+                && !JGitApacheTool.MAGIC_EXENAME.equalsIgnoreCase(gitExe);
     }
 
     /** @return Tag name associated with the given commit, or {@code null} if there is none. */
-    private static String getTagName(GitClient git, String commit, boolean allowOffsetedTags) throws InterruptedException {
+    private static String getTagName(GitClient git, String commit, boolean allowOffsetedTags,
+                                     boolean useNearestTagIndex, ResolutionTimings timings)
+            throws InterruptedException {
+        // Finding the nearest tag can mean walking a lot of history, so see if we've done most of the work before
+        boolean indexed = allowOffsetedTags && useNearestTagIndex;
+        if (indexed) {
+            long start = ResolutionTimings.start();
+            String indexedTagName = NearestTagIndex.lookup(git, commit);
+            timings.record(ResolutionTimings.Phase.DESCRIBE, start);
+            if (indexedTagName != null) {
+                LOGGER.fine(String.format("Found nearest tag '%s' for '%s' in index.", indexedTagName, commit));
+                return NearestTagIndex.NO_TAG.equals(indexedTagName) ? null : indexedTagName;
+            }
+        }
+
+        String tagName = describe(git, commit, allowOffsetedTags, timings);
+        if (indexed) {
+            NearestTagIndex.record(git, commit, tagName);
+        }
+        return tagName;
+    }
+
+    /** @return Tag name associated with the given commit according to "git describe", or {@code null}. */
+    private static String describe(GitClient git, String commit, boolean allowOffsetedTags,
+                                   ResolutionTimings timings) throws InterruptedException {
         // Query information about the most recent tag reachable from this commit
         String tagDescription = null;
+        long start = ResolutionTimings.start();
         try {
             // This should return a tag name (e.g. "beta42") or the nearest tag name and an offset ("beta42-5-g123abcd")
-            tagDescription = fixEmpty(git.describe(commit)); // "git describe --tags <commit>"
+            tagDescription = git.describe(commit); // "git describe --tags <commit>"
         } catch (GitException e) {
             // If there are no tags nearby, git returns a non-zero exit code, which throws this exception
             LOGGER.warning(String.format("Fetching tag info for '%s' threw exception: %s", commit, e.getMessage()));
+        } finally {
+            timings.record(ResolutionTimings.Phase.DESCRIBE, start);
         }
-        if (tagDescription == null) {
-            LOGGER.fine(String.format("No tag info could be found for '%s'; will not fetch tag message.", commit));
-            return null;
-        }
+        return parseTagName(tagDescription, commit, allowOffsetedTags, timings);
+    }
 
-        // If "git describe" returns a value with offset, then this particular commit has no tag pointing to it
-        Matcher m = TAG_OFFSET_MATCHER.matcher(tagDescription);
-        if (m.matches()) {
-            if (allowOffsetedTags) {
-                tagDescription = m.group("tag");
-            } else {
-                LOGGER.fine(String.format("Commit '%s' has no tag associated; will not fetch tag message.", commit));
+    /**
+     * @param tagDescription Output of "git describe", or {@code null} if it failed.
+     * @param timings Records the time spent parsing, and whether a tag was rejected due to its offset.
+     * @return Tag name from the given description, or {@code null} if there is none, or offsets aren't allowed.
+     */
+    static String parseTagName(String tagDescription, String commit, boolean allowOffsetedTags,
+                               ResolutionTimings timings) {
+        long start = ResolutionTimings.start();
+        try {
+            tagDescription = fixEmpty(tagDescription);
+            if (tagDescription == null) {
+                LOGGER.fine(String.format("No tag info could be found for '%s'; will not fetch tag message.", commit));
                 return null;
             }
-        }
 
-        return fixEmptyAndTrim(tagDescription);
+            // If "git describe" returns a value with offset, then this particular commit has no tag pointing to it
+            Matcher m = TAG_OFFSET_MATCHER.matcher(tagDescription);
+            if (m.matches()) {
+                if (allowOffsetedTags) {
+                    tagDescription = m.group("tag");
+                } else {
+                    LOGGER.fine(String.format("Commit '%s' has no tag associated; will not fetch tag message.", commit));
+                    timings.setOffsetRejected();
+                    return null;
+                }
+            }
+
+            return fixEmptyAndTrim(tagDescription);
+        } finally {
+            timings.record(ResolutionTimings.Phase.PARSE, start);
+        }
     }
 
     @Extension
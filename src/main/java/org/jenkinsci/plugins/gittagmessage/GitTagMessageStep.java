@@ -0,0 +1,205 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+import com.google.common.collect.ImmutableSet;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import org.eclipse.jgit.lib.Constants;
+import org.jenkinsci.plugins.gitclient.Git;
+import org.jenkinsci.plugins.gitclient.GitClient;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.jenkinsci.plugins.workflow.steps.SynchronousNonBlockingStepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static hudson.Util.fixEmptyAndTrim;
+
+/**
+ * Returns the git tag info of the commit checked out by a Pipeline, e.g. {@code gitTagMessage().name}.
+ * <p>
+ * The info recorded by {@link GitTagMessageExtension} during checkout is returned as-is; the repository is only read,
+ * in a single call to the agent, if the checkout didn't record everything.
+ */
+public class GitTagMessageStep extends Step {
+
+    private String repository;
+    private boolean useMostRecentTag;
+
+    @DataBoundConstructor
+    public GitTagMessageStep() {
+        // No required options
+    }
+
+    /** @return The repository name or checkout directory whose tag should be returned, if there were several. */
+    public String getRepository() {
+        return repository;
+    }
+
+    @DataBoundSetter
+    public void setRepository(String repository) {
+        this.repository = fixEmptyAndTrim(repository);
+    }
+
+    public boolean isUseMostRecentTag() {
+        return useMostRecentTag;
+    }
+
+    @DataBoundSetter
+    public void setUseMostRecentTag(boolean useMostRecentTag) {
+        this.useMostRecentTag = useMostRecentTag;
+    }
+
+    @Override
+    public StepExecution start(StepContext context) {
+        return new Execution(context, repository, useMostRecentTag);
+    }
+
+    /**
+     * @param repository The repository name or checkout directory, or {@code null} for the last checkout.
+     * @return The action recorded for the given checkout of the build, or {@code null} if there is none.
+     */
+    static GitTagMessageAction findAction(Run<?, ?> run, String repository) {
+        List<GitTagMessageAction> actions = run.getActions(GitTagMessageAction.class);
+        if (repository == null) {
+            // Match the plain variables, which are exported for the last checkout
+            return actions.isEmpty() ? null : actions.get(actions.size() - 1);
+        }
+        // Accept the checkout directory, or the repository name or URL
+        String suffix = GitTagMessageExtension.toVariableSuffix(repository);
+        String nameSuffix =
+                GitTagMessageExtension.toVariableSuffix(GitTagMessageExtension.getRepositoryName(repository));
+        for (GitTagMessageAction action : actions) {
+            String actionSuffix = action.getVariableSuffix();
+            if (actionSuffix != null && (actionSuffix.equals(suffix) || actionSuffix.equals(nameSuffix))) {
+                return action;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param tags Every tag pointing to the commit, including their messages, or {@code null} if they weren't read.
+     * @return The tag info in the form returned to Pipeline scripts.
+     */
+    static Map<String, Object> toMap(String name, String message, String commit, TagDetails details,
+                                     List<TagEntry> tags) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("name", name);
+        map.put("message", message);
+        map.put("commit", details == null ? commit : details.getCommit());
+        map.put("tagger", details == null ? null : details.getTagger());
+        map.put("date", details == null ? null : details.getDate());
+        map.put("distance", details == null ? null : details.getDistance());
+        map.put("tags", details == null ? null : new ArrayList<>(details.getTagsAtCommit()));
+        if (tags != null) {
+            List<Map<String, Object>> allTags = new ArrayList<>();
+            for (TagEntry tag : tags) {
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("name", tag.getName());
+                entry.put("message", tag.getMessage());
+                entry.put("tagger", tag.getTagger());
+                entry.put("date", tag.getDate());
+                allTags.add(entry);
+            }
+            map.put("allTags", allTags);
+        }
+        return map;
+    }
+
+    /**
+     * @param workspace The current directory of the step.
+     * @param action The action recorded for the checkout, or {@code null} if there is none.
+     * @param repository The repository name or checkout directory requested, or {@code null}.
+     * @return The directory of the repository to read.
+     */
+    static FilePath getRepositoryDirectory(FilePath workspace, GitTagMessageAction action, String repository)
+            throws IOException, InterruptedException {
+        if (action != null) {
+            String checkoutDirectory = action.getCheckoutDirectory();
+            return checkoutDirectory == null ? workspace : workspace.child(checkoutDirectory);
+        }
+        // Without a recorded checkout, the repository may be given as a checkout directory
+        if (repository != null && workspace.child(repository).child(".git").exists()) {
+            return workspace.child(repository);
+        }
+        return workspace;
+    }
+
+    private static class Execution extends SynchronousNonBlockingStepExecution<Map<String, Object>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String repository;
+        private final boolean useMostRecentTag;
+
+        Execution(StepContext context, String repository, boolean useMostRecentTag) {
+            super(context);
+            this.repository = repository;
+            this.useMostRecentTag = useMostRecentTag;
+        }
+
+        @Override
+        protected Map<String, Object> run() throws Exception {
+            Run<?, ?> run = getContext().get(Run.class);
+            GitTagMessageAction action = findAction(run, repository);
+            if (action != null && action.getDetails() != null) {
+                return toMap(action.getTagName(), action.getTagMessage(), action.getCommit(), action.getDetails(),
+                        action.getTags());
+            }
+
+            FilePath workspace = getContext().get(FilePath.class);
+            if (workspace == null) {
+                // We can't look up anything further outside of a node, so return what we have
+                return action == null ? null : toMap(action.getTagName(), action.getTagMessage(), action.getCommit(),
+                        null, null);
+            }
+
+            // Nothing, or not everything, was recorded at checkout, so read it all from the repo in one go
+            TaskListener listener = getContext().get(TaskListener.class);
+            FilePath repoDir = getRepositoryDirectory(workspace, action, repository);
+            GitClient git = Git.with(listener, getContext().get(EnvVars.class)).in(repoDir).getClient();
+            String commit = action == null || action.getCommit() == null ? Constants.HEAD : action.getCommit();
+            String requestedTag = action == null ? null : action.getTagName();
+            TagInfo tag = git.withRepository(new JGitTagResolver(commit, requestedTag, useMostRecentTag,
+                    DescribeOptions.NONE));
+            if (tag.getName() == null || !tag.exists()) {
+                return null;
+            }
+            TagDetails details = tag.getDetails();
+            return toMap(tag.getName(), tag.getMessage(), details == null ? null : details.getCommit(), details,
+                    details == null ? null : details.getTags());
+        }
+    }
+
+    @Extension(optional = true)
+    public static class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public String getFunctionName() {
+            return "gitTagMessage";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return Messages.StepDisplayName();
+        }
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return ImmutableSet.of(Run.class, TaskListener.class);
+        }
+    }
+
+}
@@ -0,0 +1,179 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+import hudson.Extension;
+import hudson.model.Action;
+import hudson.model.Api;
+import hudson.model.Job;
+import hudson.model.Run;
+import jenkins.model.TransientActionFactory;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Exposes the {@link GitTagBuildIndex} of a job at {@code job/<name>/gitTags/}, so that the builds of a tag can be
+ * found without loading every build of the job:
+ * <ul>
+ *     <li>{@code gitTags/<tag>/} redirects to the latest build of the tag, e.g. {@code gitTags/v1.0/console}</li>
+ *     <li>{@code gitTags/build?tag=<tag>} redirects there, for tag names containing slashes</li>
+ *     <li>{@code gitTags/api/json} lists every tag, with its builds and their commits</li>
+ * </ul>
+ */
+@ExportedBean
+public class GitTagsAction implements Action {
+
+    private final Job<?, ?> job;
+
+    GitTagsAction(Job<?, ?> job) {
+        this.job = job;
+    }
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getDisplayName() {
+        return Messages.GitTagsDisplayName();
+    }
+
+    public String getUrlName() {
+        return "gitTags";
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    /** @return Each tag which has been built, with its builds. */
+    @Exported(name = "tags")
+    public List<TagBuilds> getTags() {
+        GitTagBuildIndex index = GitTagBuildIndex.forJob(job);
+        List<TagBuilds> tags = new ArrayList<>();
+        for (String tagName : index.getTagNames()) {
+            List<BuildRef> builds = new ArrayList<>();
+            for (int number : index.getBuildNumbers(tagName)) {
+                builds.add(new BuildRef(number, index.getCommit(tagName, number)));
+            }
+            tags.add(new TagBuilds(tagName, builds));
+        }
+        return tags;
+    }
+
+    /** @return The latest build of the given tag which still exists, or {@code null} if there is none. */
+    public Run<?, ?> getLatestBuild(String tagName) {
+        for (int number : GitTagBuildIndex.forJob(job).getBuildNumbers(tagName)) {
+            // Only this build is loaded, rather than every build of the job
+            Run<?, ?> build = job.getBuildByNumber(number);
+            if (build != null) {
+                return build;
+            }
+        }
+        return null;
+    }
+
+    public Object getDynamic(String tagName, StaplerRequest req, StaplerResponse rsp) {
+        Run<?, ?> build = getLatestBuild(tagName);
+        return build == null ? null : new BuildRedirect(build);
+    }
+
+    public HttpResponse doBuild(@QueryParameter String tag) {
+        Run<?, ?> build = tag == null ? null : getLatestBuild(tag);
+        return build == null ? HttpResponses.notFound() : HttpResponses.redirectViaContextPath(build.getUrl());
+    }
+
+    /**
+     * Redirects to a build, keeping the rest of the path, so that the build's pages are served at their canonical URL,
+     * and relative links from them work.
+     */
+    public static final class BuildRedirect {
+
+        private final Run<?, ?> build;
+
+        BuildRedirect(Run<?, ?> build) {
+            this.build = build;
+        }
+
+        public void doIndex(StaplerRequest req, StaplerResponse rsp) throws IOException {
+            doDynamic(req, rsp);
+        }
+
+        public void doDynamic(StaplerRequest req, StaplerResponse rsp) throws IOException {
+            String rest = req.getRestOfPath();
+            String url = req.getContextPath() + '/' + build.getUrl() + (rest.startsWith("/") ? rest.substring(1) : rest);
+            String query = req.getQueryString();
+            rsp.sendRedirect2(query == null ? url : url + '?' + query);
+        }
+    }
+
+    /** A tag, and the builds which built it. */
+    @ExportedBean(defaultVisibility = 2)
+    public static final class TagBuilds {
+
+        private final String name;
+        private final List<BuildRef> builds;
+
+        TagBuilds(String name, List<BuildRef> builds) {
+            this.name = name;
+            this.builds = builds;
+        }
+
+        @Exported
+        public String getName() {
+            return name;
+        }
+
+        /** @return The builds of this tag, newest first. */
+        @Exported
+        public List<BuildRef> getBuilds() {
+            return builds;
+        }
+    }
+
+    /** A build of a tag, and the commit that it built. */
+    @ExportedBean(defaultVisibility = 3)
+    public static final class BuildRef {
+
+        private final int number;
+        private final String commit;
+
+        BuildRef(int number, String commit) {
+            this.number = number;
+            this.commit = commit;
+        }
+
+        @Exported
+        public int getNumber() {
+            return number;
+        }
+
+        @Exported
+        public String getCommit() {
+            return commit;
+        }
+    }
+
+    @Extension
+    public static class Factory extends TransientActionFactory<Job> {
+
+        @Override
+        public Class<Job> type() {
+            return Job.class;
+        }
+
+        @Override
+        public Collection<? extends Action> createFor(Job target) {
+            return Collections.singleton(new GitTagsAction(target));
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+import hudson.remoting.VirtualChannel;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.jenkinsci.plugins.gitclient.RepositoryCallback;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Determines the nearest tag for a commit from the nearest tag of a previously-built ancestor commit.
+ * <p>
+ * If none of the commits between the previous commit and this one have been tagged, then the nearest tag is the same
+ * as before, so only those new commits need to be walked, rather than the history back to the nearest tag.
+ */
+class IncrementalTagResolver implements RepositoryCallback<String> {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Maximum number of new commits to walk before giving up, and falling back to a full search. */
+    private static final int MAX_WALK = Integer.getInteger(IncrementalTagResolver.class.getName() + ".maxWalk", 1000);
+
+    private final String previousCommit;
+    private final String previousTag;
+    private final String commit;
+    private final DescribeOptions describeOptions;
+
+    /**
+     * @param previousCommit The SHA-1 of the commit checked out by a previous build.
+     * @param previousTag The nearest tag name resolved for the previous commit.
+     * @param commit The SHA-1 of the commit that was checked out.
+     * @param describeOptions Limits which tags may be chosen.
+     */
+    IncrementalTagResolver(String previousCommit, String previousTag, String commit, DescribeOptions describeOptions) {
+        this.previousCommit = previousCommit;
+        this.previousTag = previousTag;
+        this.commit = commit;
+        this.describeOptions = describeOptions;
+    }
+
+    /**
+     * @return The nearest tag name for the commit, or {@code null} if the previous result can't be reused, e.g. as the
+     *         previous commit isn't an ancestor, or new commits have been tagged.
+     */
+    public String invoke(Repository repo, VirtualChannel channel) throws IOException {
+        if (!describeOptions.isAllowed(previousTag) || repo.exactRef(Constants.R_TAGS + previousTag) == null) {
+            return null;
+        }
+        if (commit.equals(previousCommit)) {
+            return previousTag;
+        }
+
+        Map<ObjectId, List<String>> tagNames = NearestTagIndex.getTagNamesByCommit(repo);
+        try (RevWalk walk = new RevWalk(repo)) {
+            RevCommit previous = walk.parseCommit(ObjectId.fromString(previousCommit));
+            walk.markStart(walk.parseCommit(ObjectId.fromString(commit)));
+            walk.markUninteresting(previous);
+
+            // Walk only the new commits; if the previous commit is an ancestor, one of them will have it as a parent
+            boolean isDescendant = false;
+            int walked = 0;
+            for (RevCommit c = walk.next(); c != null; c = walk.next()) {
+                if (++walked > MAX_WALK || hasAllowedTag(tagNames.get(c))) {
+                    return null;
+                }
+                for (RevCommit parent : c.getParents()) {
+                    isDescendant |= parent.equals(previous);
+                }
+            }
+            return isDescendant ? previousTag : null;
+        }
+    }
+
+    private boolean hasAllowedTag(List<String> names) {
+        if (names != null) {
+            for (String name : names) {
+                if (describeOptions.isAllowed(name)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,369 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+import hudson.remoting.VirtualChannel;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.jenkinsci.plugins.gitclient.RepositoryCallback;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static hudson.Util.fixEmptyAndTrim;
+
+/**
+ * Resolves the tag name and message for a commit in-process with JGit, on the node holding the repository.
+ * <p>
+ * This is equivalent to running {@code git describe --tags} and {@code git tag -l <tag> -n10000}, but reads the refs
+ * and tag objects directly from the repository, so no git processes need to be started.
+ * <p>
+ * Unlike {@code git describe}, which weighs up several candidate tags by how many commits lie between each of them
+ * and the commit, the nearest tag is the first tagged commit found when walking back through history, newest commits
+ * first. The two only differ when tags are reachable via several branches of a merge.
+ */
+class JGitTagResolver implements RepositoryCallback<TagInfo> {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Maximum number of lines of a tag message to return, to match what the git CLI implementation would return. */
+    private static final int MAX_MESSAGE_LINES = 10000;
+
+    /**
+     * Maximum number of bytes of a tag message to read from the repository. Messages read via the git CLI are limited
+     * in the same way, with {@link #limitMessage(String)}, so that both export the same message.
+     */
+    private static final int MAX_MESSAGE_BYTES =
+            Integer.getInteger(JGitTagResolver.class.getName() + ".maxMessageBytes", 1024 * 1024);
+
+    /** Appended to a message which was cut short at {@link #MAX_MESSAGE_BYTES}; takes the number of bytes kept. */
+    private static final String TRUNCATION_MARKER = "\n[Truncated after %d bytes]";
+
+    private static final String SIGNATURE_START = "-----BEGIN PGP SIGNATURE-----";
+
+    /** Maximum number of commits to count between a commit and its nearest tag, before giving up. */
+    private static final int MAX_DISTANCE = 10000;
+
+    private final String commit;
+    private final String requestedTag;
+    private final boolean useMostRecentTag;
+    private final DescribeOptions describeOptions;
+    private final int maxDepth;
+
+    /**
+     * @param commit The SHA-1 of the commit that was checked out, or another revision, e.g. {@code HEAD}.
+     * @param requestedTag The tag name that triggered this build, or {@code null} if it should be determined.
+     * @param useMostRecentTag Whether the nearest tag in history may be used.
+     * @param describeOptions Limits which tags may be chosen, if none was requested.
+     */
+    JGitTagResolver(String commit, String requestedTag, boolean useMostRecentTag, DescribeOptions describeOptions) {
+        this(commit, requestedTag, useMostRecentTag, describeOptions, 0);
+    }
+
+    /**
+     * @param maxDepth The maximum number of commits to search for the nearest tag, or zero if there is no limit; if
+     *                 no tag is found within that many commits, the result is marked as degraded.
+     */
+    JGitTagResolver(String commit, String requestedTag, boolean useMostRecentTag, DescribeOptions describeOptions,
+                    int maxDepth) {
+        this.commit = commit;
+        this.requestedTag = requestedTag;
+        this.useMostRecentTag = useMostRecentTag;
+        this.describeOptions = describeOptions;
+        this.maxDepth = maxDepth;
+    }
+
+    public TagInfo invoke(Repository repo, VirtualChannel channel) throws IOException {
+        ResolutionTimings timings = new ResolutionTimings();
+        return resolve(repo, timings).withTimings(timings);
+    }
+
+    private TagInfo resolve(Repository repo, ResolutionTimings timings) throws IOException {
+        try (RevWalk walk = new RevWalk(repo)) {
+            long start = ResolutionTimings.start();
+            ObjectId commitId = repo.resolve(commit);
+            if (commitId == null) {
+                throw new IOException(String.format("Could not resolve '%s'", commit));
+            }
+            RevCommit head = walk.parseCommit(commitId);
+            if (requestedTag != null) {
+                Ref ref = repo.exactRef(Constants.R_TAGS + requestedTag);
+                timings.record(ResolutionTimings.Phase.DESCRIBE, start);
+                if (ref == null) {
+                    return TagInfo.missing(requestedTag);
+                }
+                Candidate tag = new Candidate(requestedTag, walk.parseAny(ref.getObjectId()));
+                // Only the requested tag matters, so don't peel every tag ref just to list the others on the commit
+                Map<ObjectId, List<String>> tagNames =
+                        Collections.singletonMap(walk.peel(tag.target), Collections.singletonList(requestedTag));
+                return toTagInfo(repo, walk, head, tag, tagNames, timings);
+            }
+
+            // Peeling the refs is cheap, as packed refs record their peeled value; only tags on the commits we reach
+            // need to be parsed, and only to choose between them
+            Map<ObjectId, List<String>> tagNames = NearestTagIndex.getTagNamesByCommit(repo);
+            List<Candidate> tags = getCandidates(repo, walk, tagNames.get(head), describeOptions);
+            if (tags.isEmpty() && useMostRecentTag) {
+                // Walk back through history, newest commits first, until we find a commit which has been tagged
+                walk.markStart(head);
+                int walked = 0;
+                for (RevCommit c = walk.next(); c != null && tags.isEmpty(); c = walk.next()) {
+                    if (maxDepth > 0 && ++walked > maxDepth) {
+                        timings.record(ResolutionTimings.Phase.DESCRIBE, start);
+                        return TagInfo.NONE.asDegraded();
+                    }
+                    if (Thread.currentThread().isInterrupted()) {
+                        // The lookup ran out of time, or the build was aborted
+                        throw new InterruptedIOException(String.format("Tag lookup for '%s' was cancelled", commit));
+                    }
+                    tags = getCandidates(repo, walk, tagNames.get(c), describeOptions);
+                }
+            }
+            timings.record(ResolutionTimings.Phase.DESCRIBE, start);
+            if (tags.isEmpty()) {
+                return TagInfo.NONE;
+            }
+            return toTagInfo(repo, walk, head, selectTag(tags), tagNames, timings);
+        }
+    }
+
+    /**
+     * @param names The names of the tags on a commit, or {@code null} if it has none.
+     * @param describeOptions Limits which tags are returned.
+     * @return The allowed tags among those given, with their tag objects parsed.
+     */
+    static List<Candidate> getCandidates(Repository repo, RevWalk walk, List<String> names,
+                                         DescribeOptions describeOptions) throws IOException {
+        if (names == null) {
+            return Collections.emptyList();
+        }
+        List<Candidate> candidates = new ArrayList<>(names.size());
+        for (String name : names) {
+            if (!describeOptions.isAllowed(name)) {
+                continue;
+            }
+            Ref ref = repo.exactRef(Constants.R_TAGS + name);
+            if (ref != null) {
+                candidates.add(new Candidate(name, walk.parseAny(ref.getObjectId())));
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Chooses between multiple tags on the same commit in the same way as {@code git describe --tags}: annotated tags
+     * are preferred over lightweight tags, then the most recently created, then the first in alphabetical order.
+     */
+    static Candidate selectTag(List<Candidate> tags) {
+        Candidate best = null;
+        for (Candidate tag : tags) {
+            if (best == null || tag.isPreferredTo(best)) {
+                best = tag;
+            }
+        }
+        return best;
+    }
+
+    private static TagInfo toTagInfo(Repository repo, RevWalk walk, RevCommit head, Candidate tag,
+                                     Map<ObjectId, List<String>> tagNames, ResolutionTimings timings)
+            throws IOException {
+        long start = ResolutionTimings.start();
+        try {
+            // We've already read most of what's needed for the details, so record them while we're here
+            String message = readMessage(walk, tag.target);
+            return TagInfo.found(tag.name, message).withDetails(readDetails(walk, head, tag, tagNames));
+        } finally {
+            timings.record(ResolutionTimings.Phase.MESSAGE, start);
+        }
+    }
+
+    /**
+     * @param tagNames The names of all tags in the repository, grouped by the commit they point to.
+     * @return Details of the given tag, which was chosen for the given commit.
+     */
+    static TagDetails readDetails(RevWalk walk, RevCommit head, Candidate tag, Map<ObjectId, List<String>> tagNames)
+            throws IOException {
+        PersonIdent tagger = tag.isAnnotated() ? ((RevTag) tag.target).getTaggerIdent() : null;
+        List<String> tagsAtCommit = tagNames.get(head);
+        return new TagDetails(head.name(), formatTagger(tagger), formatDate(tagger),
+                countDistance(walk, head, tag.target), tagsAtCommit == null ? Collections.emptyList() : tagsAtCommit);
+    }
+
+    /** @return The name and email address of the tagger, or {@code null} if unknown. */
+    static String formatTagger(PersonIdent tagger) {
+        return tagger == null ? null : String.format("%s <%s>", tagger.getName(), tagger.getEmailAddress());
+    }
+
+    /** @return When the tag was created, in ISO-8601 format with the tagger's time zone, or {@code null} if unknown. */
+    static String formatDate(PersonIdent tagger) {
+        return tagger == null ? null
+                : OffsetDateTime.ofInstant(tagger.getWhen().toInstant(), tagger.getTimeZone().toZoneId()).toString();
+    }
+
+    /**
+     * @return The number of commits reachable from the given commit, but not from the tagged commit, like the offset
+     *         given by {@code git describe}; or {@code null} if there are too many to count.
+     */
+    private static Integer countDistance(RevWalk walk, RevCommit head, RevObject tagTarget) throws IOException {
+        RevObject tagged = walk.peel(tagTarget);
+        if (!(tagged instanceof RevCommit)) {
+            return null;
+        }
+        if (tagged.equals(head)) {
+            return 0;
+        }
+        walk.reset();
+        walk.markStart(head);
+        walk.markUninteresting((RevCommit) tagged);
+        int distance = 0;
+        for (RevCommit c = walk.next(); c != null; c = walk.next()) {
+            if (++distance > MAX_DISTANCE) {
+                return null;
+            }
+        }
+        return distance;
+    }
+
+    /**
+     * Reads the message for a tag in the same way that {@code git tag -n} does: for annotated tags, this is the tag
+     * message, minus any signature; for lightweight tags it's the message of the commit that the tag points to.
+     *
+     * @return The trimmed message, or {@code null} if there is none.
+     */
+    static String readMessage(RevWalk walk, RevObject target) throws IOException {
+        RevObject object = target instanceof RevTag ? target : walk.peel(target);
+        if (!(object instanceof RevTag) && !(object instanceof RevCommit)) {
+            return null;
+        }
+
+        String message = readBoundedMessage(walk.getObjectReader(), object, MAX_MESSAGE_BYTES);
+        if (object instanceof RevTag) {
+            int signature = message.indexOf(SIGNATURE_START);
+            if (signature != -1) {
+                message = message.substring(0, signature);
+            }
+        }
+        return fixEmptyAndTrim(limitLines(message, MAX_MESSAGE_LINES));
+    }
+
+    /**
+     * Reads the message from a tag or commit object, streaming it from the object database rather than loading the
+     * whole object, so that very large messages don't need to be held in memory.
+     *
+     * @param maxBytes The maximum number of bytes of the message to read.
+     * @return The (untrimmed) message, which may have been truncated, as for {@link #limitBytes(byte[], int)}.
+     */
+    static String readBoundedMessage(ObjectReader reader, AnyObjectId id, int maxBytes) throws IOException {
+        try (InputStream in = new BufferedInputStream(reader.open(id).openStream())) {
+            // Skip the object headers, which end at the first empty line
+            int previous = -1;
+            for (int b = in.read(); b != -1; b = in.read()) {
+                if (b == '\n' && previous == '\n') {
+                    break;
+                }
+                previous = b;
+            }
+
+            // Read one byte past the limit, so that we know whether the message was cut short
+            ByteArrayOutputStream message = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            long remaining = maxBytes + 1L;
+            int n;
+            while (remaining > 0 && (n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                message.write(buffer, 0, n);
+                remaining -= n;
+            }
+            return limitBytes(message.toByteArray(), maxBytes);
+        }
+    }
+
+    /**
+     * Limits the size of a message read via the git CLI in the same way as those read in-process.
+     *
+     * @return The message, which may have been truncated, as for {@link #limitBytes(byte[], int)}.
+     */
+    static String limitMessage(String message) {
+        return message == null ? null : limitBytes(message.getBytes(StandardCharsets.UTF_8), MAX_MESSAGE_BYTES);
+    }
+
+    /**
+     * @param bytes A message, encoded as UTF-8.
+     * @return The message, or, if it's longer than {@code maxBytes}, as much of it as fits without splitting a
+     *         multi-byte character, followed by a note that it was truncated.
+     */
+    static String limitBytes(byte[] bytes, int maxBytes) {
+        if (bytes.length <= maxBytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        int end = maxBytes;
+        while (end > 0 && (bytes[end] & 0xC0) == 0x80) {
+            end--;
+        }
+        return new String(bytes, 0, end, StandardCharsets.UTF_8) + String.format(TRUNCATION_MARKER, end);
+    }
+
+    private static String limitLines(String message, int maxLines) {
+        int end = -1;
+        for (int i = 0; i < maxLines; i++) {
+            end = message.indexOf('\n', end + 1);
+            if (end == -1) {
+                return message;
+            }
+        }
+        return message.substring(0, end);
+    }
+
+    /** A tag which may be chosen for a commit. */
+    static final class Candidate {
+
+        final String name;
+        final RevObject target;
+
+        Candidate(String name, RevObject target) {
+            this.name = name;
+            this.target = target;
+        }
+
+        boolean isAnnotated() {
+            return target instanceof RevTag;
+        }
+
+        /** @return When the tag was created, or zero for lightweight tags, which have no date of their own. */
+        long getCreationTime() {
+            if (!isAnnotated()) {
+                return 0;
+            }
+            PersonIdent tagger = ((RevTag) target).getTaggerIdent();
+            return tagger == null ? 0 : tagger.getWhen().getTime();
+        }
+
+        boolean isPreferredTo(Candidate other) {
+            if (isAnnotated() != other.isAnnotated()) {
+                return isAnnotated();
+            }
+            long time = getCreationTime();
+            long otherTime = other.getCreationTime();
+            if (time != otherTime) {
+                return time > otherTime;
+            }
+            return name.compareTo(other.name) < 0;
+        }
+    }
+
+}
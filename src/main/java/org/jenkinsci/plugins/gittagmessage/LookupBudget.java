@@ -0,0 +1,79 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+/**
+ * Limits how long a tag lookup may take, so that a pathological history can't hold up a build, and its executor.
+ * <p>
+ * If a lookup runs out of time, it is cancelled, which also kills any git process it started, including on an
+ * agent, and a cheaper lookup is used instead.
+ */
+final class LookupBudget {
+
+    private static final Logger LOGGER = Logger.getLogger(LookupBudget.class.getName());
+
+    /** Runs the lookups being timed; each is waited for by a build, so the number of threads is already bounded. */
+    private static final ExecutorService EXECUTOR =
+            Executors.newCachedThreadPool(new NamingThreadFactory(new DaemonThreadFactory(), "Git tag lookup timeout"));
+
+    private LookupBudget() {
+        // Static methods only
+    }
+
+    /**
+     * @param loader The full lookup.
+     * @param timeoutSeconds How long the full lookup may take, or zero if there is no limit.
+     * @param fallback A cheaper lookup, used if the full lookup takes too long.
+     * @return A loader which runs the full lookup, but uses the fallback if it doesn't complete in time.
+     */
+    static TagInfoCache.Loader withTimeout(TagInfoCache.Loader loader, int timeoutSeconds,
+                                           TagInfoCache.Loader fallback, TaskListener listener) {
+        if (timeoutSeconds <= 0) {
+            return loader;
+        }
+        return () -> {
+            Future<TagInfo> future = EXECUTOR.submit(loader::load);
+            try {
+                return future.get(timeoutSeconds, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                listener.getLogger().println(Messages.LookupTimedOut(timeoutSeconds));
+                LOGGER.warning(String.format("Tag lookup did not complete within %d seconds; cancelled it",
+                        timeoutSeconds));
+                ResolutionTimings timings = new ResolutionTimings();
+                return fallback.load().withTimings(timings).asDegraded();
+            } catch (InterruptedException e) {
+                // The build was aborted, so there's no point carrying on with the lookup
+                future.cancel(true);
+                throw e;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof InterruptedException) {
+                    throw (InterruptedException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IOException(cause);
+            }
+        };
+    }
+
+}
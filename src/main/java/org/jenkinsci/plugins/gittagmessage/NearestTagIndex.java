@@ -0,0 +1,492 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+import hudson.remoting.VirtualChannel;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.jenkinsci.plugins.gitclient.GitClient;
+import org.jenkinsci.plugins.gitclient.RepositoryCallback;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persistent, per-repository index of the nearest tag for commits which have previously been built.
+ * <p>
+ * The index is stored in the repository's git directory, alongside a snapshot of the tag refs it was built against.
+ * When looking up a commit which isn't yet in the index, history is walked only until reaching a commit which is
+ * either tagged, or already in the index &mdash; typically the commit from the previous build &mdash; so only newly
+ * fetched commits need to be walked.
+ * <p>
+ * If the tag refs have changed since the index was written, only the entries which the changed tags could affect are
+ * dropped: those whose nearest tag was removed or moved, and those for commits no older than a newly tagged commit.
+ * If the index can't be read, it's discarded and callers should fall back to {@code git describe}, recording its
+ * result for next time.
+ */
+final class NearestTagIndex {
+
+    private static final Logger LOGGER = Logger.getLogger(NearestTagIndex.class.getName());
+
+    /** Name of the index file, within the git directory. */
+    static final String FILE_NAME = "jenkins-git-tag-message.idx";
+
+    /** Name of the file with the snapshot of the tag refs that the index is valid for, within the git directory. */
+    static final String TAGS_FILE_NAME = FILE_NAME + ".tags";
+
+    /** Value stored for commits which have no tag in their history. */
+    static final String NO_TAG = "-";
+
+    private static final String HEADER = "git-tag-message-index 2";
+
+    private static final String TAGS_HEADER = "git-tag-message-tags 2";
+
+    /** Maximum number of commits to store; the oldest entries are dropped first. */
+    private static final int MAX_ENTRIES = Integer.getInteger(NearestTagIndex.class.getName() + ".maxEntries", 10000);
+
+    /** Maximum number of new commits to walk before giving up, and falling back to {@code git describe}. */
+    private static final int MAX_WALK = Integer.getInteger(NearestTagIndex.class.getName() + ".maxWalk", 10000);
+
+    /**
+     * How much older than a newly tagged commit, in seconds, an indexed commit must be for us to assume the new tag
+     * isn't in its history; commit times aren't strictly ordered, as committers' clocks may be wrong.
+     */
+    private static final int CLOCK_SKEW_SECONDS = 24 * 60 * 60;
+
+    /** Locks guarding the index files, shared between repositories whose git directories hash to the same lock. */
+    private static final Object[] LOCKS = new Object[32];
+
+    static {
+        for (int i = 0; i < LOCKS.length; i++) {
+            LOCKS[i] = new Object();
+        }
+    }
+
+    private NearestTagIndex() {}
+
+    /**
+     * @return The nearest tag name for the given commit, {@link #NO_TAG} if it has no tag in its history, or
+     *         {@code null} if the index can't answer.
+     */
+    static String lookup(GitClient git, String commit) throws InterruptedException {
+        try {
+            return git.withRepository(new Lookup(commit));
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Could not look up nearest tag in index", e);
+            return null;
+        }
+    }
+
+    /** Records the nearest tag name for a commit, as determined by other means, e.g. {@code git describe}. */
+    static void record(GitClient git, String commit, String tagName) throws InterruptedException {
+        try {
+            git.withRepository(new Record(commit, tagName == null ? NO_TAG : tagName));
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Could not record nearest tag in index", e);
+        }
+    }
+
+    private static Object getLock(Repository repo) {
+        return LOCKS[Math.floorMod(repo.getDirectory().getAbsolutePath().hashCode(), LOCKS.length)];
+    }
+
+    private static File getFile(Repository repo) {
+        return new File(repo.getDirectory(), FILE_NAME);
+    }
+
+    private static File getTagsFile(Repository repo) {
+        return new File(repo.getDirectory(), TAGS_FILE_NAME);
+    }
+
+    /**
+     * Reads the index, and brings it up to date with the current tag refs.
+     *
+     * @param refs The current tag refs, keyed by tag name.
+     * @param fingerprint The fingerprint of the current tag refs.
+     * @return The index, or {@code null} if there is none, or it can't be read.
+     */
+    private static Index open(Repository repo, Map<String, Ref> refs, String fingerprint) throws IOException {
+        File file = getFile(repo);
+        Index index;
+        try {
+            index = read(file);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Discarding unreadable tag index " + file, e);
+            index = null;
+        }
+        if (index == null || index.fingerprint.equals(fingerprint)) {
+            return index;
+        }
+
+        // The tags have changed, so work out which entries are affected by comparing against the snapshot
+        Map<String, TagTarget> previous;
+        try {
+            previous = readTags(getTagsFile(repo), index.fingerprint);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Discarding unreadable tag snapshot for index " + file, e);
+            previous = null;
+        }
+        if (previous == null) {
+            return null;
+        }
+        Map<String, TagTarget> current = getTargets(repo, refs, previous);
+        invalidate(repo, index, previous, current);
+        index.fingerprint = fingerprint;
+        index.tags = current;
+        index.tagsChanged = true;
+        index.changed = true;
+        return index;
+    }
+
+    /** Drops the entries whose nearest tag may be different, now that the tags have changed. */
+    private static void invalidate(Repository repo, Index index, Map<String, TagTarget> previous,
+                                   Map<String, TagTarget> current) throws IOException {
+        Set<String> removed = new HashSet<>();
+        for (Map.Entry<String, TagTarget> tag : previous.entrySet()) {
+            if (!tag.getValue().isSameRef(current.get(tag.getKey()))) {
+                removed.add(tag.getKey());
+            }
+        }
+        // Removing a tag can only affect those commits for which it was the nearest tag
+        index.entries.values().removeIf(entry -> removed.contains(entry.tagName));
+
+        // Adding a tag can only affect commits which have the tagged commit in their history, i.e. newer commits
+        long oldestTagged = Long.MAX_VALUE;
+        try (RevWalk walk = new RevWalk(repo)) {
+            for (Map.Entry<String, TagTarget> tag : current.entrySet()) {
+                if (!tag.getValue().isSameRef(previous.get(tag.getKey()))) {
+                    RevObject target = walk.parseAny(tag.getValue().target);
+                    if (target instanceof RevCommit) {
+                        oldestTagged = Math.min(oldestTagged, ((RevCommit) target).getCommitTime());
+                    }
+                }
+            }
+        }
+        if (oldestTagged != Long.MAX_VALUE) {
+            long newerThan = oldestTagged - CLOCK_SKEW_SECONDS;
+            index.entries.values().removeIf(entry -> entry.commitTime >= newerThan);
+        }
+    }
+
+    /**
+     * @param refs The current tag refs, keyed by tag name.
+     * @param previous The tags from an earlier snapshot, whose peeled targets are reused if their ref is unchanged.
+     * @return The target of each tag ref, peeled to the commit it points to.
+     */
+    private static Map<String, TagTarget> getTargets(Repository repo, Map<String, Ref> refs,
+                                                     Map<String, TagTarget> previous) throws IOException {
+        Map<String, TagTarget> targets = new HashMap<>();
+        for (Map.Entry<String, Ref> ref : refs.entrySet()) {
+            ObjectId id = ref.getValue().getObjectId();
+            if (id == null) {
+                continue;
+            }
+            TagTarget target = previous.get(ref.getKey());
+            if (target == null || !target.ref.equals(id)) {
+                // Packed refs usually have their peeled value recorded already, so this is cheap
+                Ref peeled = repo.getRefDatabase().peel(ref.getValue());
+                target = new TagTarget(id, peeled.getPeeledObjectId() != null ? peeled.getPeeledObjectId() : id);
+            }
+            targets.put(ref.getKey(), target);
+        }
+        return targets;
+    }
+
+    /** @return Map of each tagged commit to the names of the tags pointing to it. */
+    private static Map<ObjectId, List<String>> getTagNamesByCommit(Map<String, TagTarget> targets) {
+        Map<ObjectId, List<String>> tagNames = new HashMap<>();
+        for (Map.Entry<String, TagTarget> tag : targets.entrySet()) {
+            List<String> names = tagNames.get(tag.getValue().target);
+            if (names == null) {
+                names = new ArrayList<>(1);
+                tagNames.put(tag.getValue().target, names);
+            }
+            names.add(tag.getKey());
+        }
+        return tagNames;
+    }
+
+    /** @return Map of each tagged commit to the names of the tags pointing to it. */
+    static Map<ObjectId, List<String>> getTagNamesByCommit(Repository repo) throws IOException {
+        Map<String, Ref> refs = repo.getRefDatabase().getRefs(Constants.R_TAGS);
+        return getTagNamesByCommit(getTargets(repo, refs, Collections.emptyMap()));
+    }
+
+    /** @return The index, or {@code null} if there is none, or it was written in an older format. */
+    private static Index read(File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (header == null || !header.startsWith(HEADER + " ")) {
+                return null;
+            }
+            Index index = new Index(header.substring(HEADER.length() + 1));
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                String[] fields = line.split(" ", 3);
+                if (fields.length != 3 || !ObjectId.isId(fields[0])) {
+                    throw new IOException("Corrupt tag index entry: " + line);
+                }
+                try {
+                    index.entries.put(fields[0], new IndexEntry(Integer.parseInt(fields[1]), fields[2]));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Corrupt tag index entry: " + line, e);
+                }
+            }
+            return index;
+        }
+    }
+
+    /** @return The tag snapshot, or {@code null} if there is none, or it's for a different set of tags. */
+    private static Map<String, TagTarget> readTags(File file, String tagRefsFingerprint) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (header == null || !header.equals(TAGS_HEADER + " " + tagRefsFingerprint)) {
+                return null;
+            }
+            Map<String, TagTarget> tags = new HashMap<>();
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                // Tag names can't contain spaces
+                String[] fields = line.split(" ");
+                if (fields.length != 3 || !ObjectId.isId(fields[1]) || !ObjectId.isId(fields[2])) {
+                    throw new IOException("Corrupt tag snapshot entry: " + line);
+                }
+                tags.put(fields[0], new TagTarget(ObjectId.fromString(fields[1]), ObjectId.fromString(fields[2])));
+            }
+            return tags;
+        }
+    }
+
+    private static void write(Repository repo, Index index) throws IOException {
+        Iterator<String> oldest = index.entries.keySet().iterator();
+        while (index.entries.size() > MAX_ENTRIES) {
+            oldest.next();
+            oldest.remove();
+        }
+
+        // The snapshot is written first; if we fail before writing the index, the old index won't match it
+        if (index.tagsChanged) {
+            List<String> lines = new ArrayList<>(index.tags.size());
+            for (Map.Entry<String, TagTarget> tag : index.tags.entrySet()) {
+                lines.add(tag.getKey() + " " + tag.getValue().ref.name() + " " + tag.getValue().target.name());
+            }
+            write(getTagsFile(repo), TAGS_HEADER + " " + index.fingerprint, lines);
+        }
+        List<String> lines = new ArrayList<>(index.entries.size());
+        for (Map.Entry<String, IndexEntry> entry : index.entries.entrySet()) {
+            lines.add(entry.getKey() + " " + entry.getValue().commitTime + " " + entry.getValue().tagName);
+        }
+        write(getFile(repo), HEADER + " " + index.fingerprint, lines);
+    }
+
+    private static void write(File file, String header, List<String> lines) throws IOException {
+        // Write to a temporary file first, so that concurrent readers never see a partially-written file
+        File tmp = new File(file.getPath() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(header);
+            writer.newLine();
+            for (String line : lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void delete(Repository repo) throws IOException {
+        Files.deleteIfExists(getFile(repo).toPath());
+        Files.deleteIfExists(getTagsFile(repo).toPath());
+    }
+
+    /** The contents of the index for a repository. */
+    private static final class Index {
+
+        /** Fingerprint of the tag refs that the entries are valid for. */
+        private String fingerprint;
+
+        /** The nearest tag for each indexed commit, oldest entries first. */
+        private final LinkedHashMap<String, IndexEntry> entries = new LinkedHashMap<>();
+
+        /** The snapshot of the tag refs, or {@code null} if it hasn't been read yet. */
+        private Map<String, TagTarget> tags;
+
+        private boolean tagsChanged;
+        private boolean changed;
+
+        Index(String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        /** @return The snapshot of the tag refs, which are those given, as the index is up to date. */
+        Map<String, TagTarget> getTags(Repository repo, Map<String, Ref> refs) throws IOException {
+            if (tags == null) {
+                try {
+                    tags = readTags(getTagsFile(repo), fingerprint);
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Could not read tag snapshot; will recreate it", e);
+                }
+                if (tags == null) {
+                    tags = getTargets(repo, refs, Collections.emptyMap());
+                    tagsChanged = true;
+                }
+            }
+            return tags;
+        }
+    }
+
+    private static final class IndexEntry {
+
+        /** The commit time of the indexed commit, in seconds since the epoch. */
+        private final int commitTime;
+        private final String tagName;
+
+        IndexEntry(int commitTime, String tagName) {
+            this.commitTime = commitTime;
+            this.tagName = tagName;
+        }
+    }
+
+    /** The object a tag ref points to, and the commit (or other object) that it peels to. */
+    private static final class TagTarget {
+
+        private final ObjectId ref;
+        private final ObjectId target;
+
+        TagTarget(ObjectId ref, ObjectId target) {
+            this.ref = ref;
+            this.target = target;
+        }
+
+        boolean isSameRef(TagTarget other) {
+            return other != null && ref.equals(other.ref);
+        }
+    }
+
+    private static class Lookup implements RepositoryCallback<String> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String commit;
+
+        Lookup(String commit) {
+            this.commit = commit;
+        }
+
+        public String invoke(Repository repo, VirtualChannel channel) throws IOException {
+            synchronized (getLock(repo)) {
+                Map<String, Ref> refs = repo.getRefDatabase().getRefs(Constants.R_TAGS);
+                Index index = open(repo, refs, TagRefsFingerprint.compute(refs));
+                if (index == null) {
+                    // The index is missing or corrupt; the caller will need to fall back to "git describe"
+                    delete(repo);
+                    return null;
+                }
+
+                IndexEntry entry = index.entries.get(commit);
+                if (entry != null) {
+                    if (index.changed) {
+                        write(repo, index);
+                    }
+                    return entry.tagName;
+                }
+
+                // Walk back through the new commits until we reach a tagged commit, or one that's already indexed
+                Map<ObjectId, List<String>> tagNames = getTagNamesByCommit(index.getTags(repo, refs));
+                String tagName = null;
+                int commitTime;
+                try (RevWalk walk = new RevWalk(repo)) {
+                    RevCommit head = walk.parseCommit(ObjectId.fromString(commit));
+                    commitTime = head.getCommitTime();
+                    walk.markStart(head);
+                    int walked = 0;
+                    for (RevCommit c = walk.next(); c != null && tagName == null; c = walk.next()) {
+                        if (++walked > MAX_WALK) {
+                            return null;
+                        }
+                        List<String> names = tagNames.get(c);
+                        if (names != null) {
+                            tagName = selectTag(repo, walk, names);
+                        } else {
+                            IndexEntry indexed = index.entries.get(c.name());
+                            tagName = indexed == null ? null : indexed.tagName;
+                        }
+                    }
+                }
+                if (tagName == null) {
+                    tagName = NO_TAG;
+                }
+                index.entries.put(commit, new IndexEntry(commitTime, tagName));
+                write(repo, index);
+                return tagName;
+            }
+        }
+
+        /** @return The name of the tag that "git describe" would choose, from those pointing to the same commit. */
+        private static String selectTag(Repository repo, RevWalk walk, List<String> names) throws IOException {
+            if (names.size() == 1) {
+                return names.get(0);
+            }
+            List<JGitTagResolver.Candidate> candidates =
+                    JGitTagResolver.getCandidates(repo, walk, names, DescribeOptions.NONE);
+            return candidates.isEmpty() ? names.get(0) : JGitTagResolver.selectTag(candidates).name;
+        }
+    }
+
+    private static class Record implements RepositoryCallback<Void> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String commit;
+        private final String tagName;
+
+        Record(String commit, String tagName) {
+            this.commit = commit;
+            this.tagName = tagName;
+        }
+
+        public Void invoke(Repository repo, VirtualChannel channel) throws IOException {
+            synchronized (getLock(repo)) {
+                Map<String, Ref> refs = repo.getRefDatabase().getRefs(Constants.R_TAGS);
+                String fingerprint = TagRefsFingerprint.compute(refs);
+                Index index = open(repo, refs, fingerprint);
+                if (index == null) {
+                    index = new Index(fingerprint);
+                }
+                // Make sure there's a snapshot to compare against once the tags change
+                index.getTags(repo, refs);
+
+                int commitTime;
+                try (RevWalk walk = new RevWalk(repo)) {
+                    commitTime = walk.parseCommit(ObjectId.fromString(commit)).getCommitTime();
+                }
+                index.entries.put(commit, new IndexEntry(commitTime, tagName));
+                write(repo, index);
+                return null;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,65 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+import java.io.Serializable;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time spent in each phase of a single tag lookup, which may have been measured on an agent, along with how it ended.
+ */
+final class ResolutionTimings implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The phases of a tag lookup. */
+    enum Phase {
+        /** Finding the tag name for a commit, e.g. via "git describe". */
+        DESCRIBE,
+        /** Parsing the output of "git describe". */
+        PARSE,
+        /** Reading the tag message. */
+        MESSAGE,
+        /** Creating and attaching the action to the build. */
+        ACTION
+    }
+
+    private final long[] nanos = new long[Phase.values().length];
+    private boolean offsetRejected;
+
+    /** @return The current time, to later pass to {@link #record(Phase, long)}. */
+    static long start() {
+        return System.nanoTime();
+    }
+
+    /** Records the time since {@code startNanos} against the given phase. */
+    void record(Phase phase, long startNanos) {
+        nanos[phase.ordinal()] += System.nanoTime() - startNanos;
+    }
+
+    long getNanos(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    /** Marks that a tag was found, but was rejected as it doesn't point to the commit itself. */
+    void setOffsetRejected() {
+        offsetRejected = true;
+    }
+
+    boolean isOffsetRejected() {
+        return offsetRejected;
+    }
+
+    /** @return A compact summary of the time spent in each phase. */
+    String toSummary() {
+        StringBuilder summary = new StringBuilder();
+        for (Phase phase : Phase.values()) {
+            if (summary.length() > 0) {
+                summary.append(", ");
+            }
+            summary.append(phase.name().toLowerCase(Locale.ENGLISH)).append(' ')
+                    .append(TimeUnit.NANOSECONDS.toMillis(getNanos(phase))).append(" ms");
+        }
+        return summary.toString();
+    }
+
+}
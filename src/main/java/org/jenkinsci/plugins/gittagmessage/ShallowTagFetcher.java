@@ -0,0 +1,309 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+import hudson.EnvVars;
+import hudson.model.TaskListener;
+import hudson.plugins.git.GitException;
+import hudson.plugins.git.GitSCM;
+import hudson.remoting.VirtualChannel;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteConfig;
+import org.eclipse.jgit.transport.URIish;
+import org.jenkinsci.plugins.gitclient.GitClient;
+import org.jenkinsci.plugins.gitclient.RepositoryCallback;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Fetches only the tags needed to describe a commit in a shallow clone, which usually has no tags, and not enough
+ * history to find the nearest tag, so that we don't need to fetch every tag and the full history.
+ * <p>
+ * The local tags are checked first, so that the remote is only contacted if the tags needed aren't already present,
+ * e.g. from an earlier build. The tags on the remote are then listed, so that we only fetch those which point at the
+ * commit, or, if allowed, deepen the history step by step until it includes a tagged commit.
+ */
+final class ShallowTagFetcher {
+
+    private static final Logger LOGGER = Logger.getLogger(ShallowTagFetcher.class.getName());
+
+    /** The suffix that {@code git ls-remote} appends to a tag name for the commit an annotated tag points to. */
+    private static final String PEELED_SUFFIX = "^{}";
+
+    /** The minimum depth that the history is deepened to. */
+    private static final int INITIAL_DEPTH = 16;
+
+    /** The factor by which the history is deepened each time no tagged commit has been found. */
+    private static final int DEEPEN_FACTOR = 4;
+
+    private ShallowTagFetcher() {
+        // Static methods only
+    }
+
+    /**
+     * Fetches the tags for the given commit from the first remote of the given SCM, if the repo is a shallow clone
+     * which doesn't already have them.
+     *
+     * @param requestedTag The tag name that triggered this build, or {@code null} if it should be determined.
+     * @param maxDepth The maximum depth to which the history may be deepened to find the nearest tag, or zero if only
+     *                 tags pointing at the commit itself should be fetched.
+     * @param describeOptions Limits which tags are fetched.
+     * @param allTagRefs Whether the fingerprint should cover all tag refs, rather than only the requested tag, if any.
+     * @param environment The environment of the build, used to expand the remote URL.
+     * @return The fingerprint of the tag refs in the repo, once any tags have been fetched, or {@code null} if the tag
+     *         refs could not be read.
+     */
+    static String fetchTags(GitSCM scm, GitClient git, String commit, String requestedTag, int maxDepth,
+                            DescribeOptions describeOptions, boolean allTagRefs, EnvVars environment,
+                            TaskListener listener) throws InterruptedException {
+        String fingerprintTag = allTagRefs ? null : requestedTag;
+        LocalTags local;
+        try {
+            local = git.withRepository(new CheckLocalTags(commit, requestedTag, fingerprintTag, maxDepth > 0,
+                    describeOptions));
+        } catch (IOException e) {
+            LOGGER.fine(String.format("Could not read tag refs; will not use cached tag info: %s", e.getMessage()));
+            return null;
+        }
+        if (!local.shallow || local.found) {
+            return local.fingerprint;
+        }
+
+        List<RemoteConfig> remotes = scm.getRepositories();
+        if (remotes.isEmpty() || remotes.get(0).getURIs().isEmpty()) {
+            return local.fingerprint;
+        }
+        RemoteConfig remote = remotes.get(0);
+        if (remotes.size() > 1) {
+            listener.getLogger().println(Messages.ShallowTagFetchFromFirstRemote(remote.getName()));
+        }
+        try {
+            URIish uri = new URIish(environment.expand(remote.getURIs().get(0).toString()));
+            fetchTags(git, uri, remote.getFetchRefSpecs(), commit, maxDepth, describeOptions, listener);
+        } catch (GitException | IOException | URISyntaxException e) {
+            // We'll still try to find the tag with what we have
+            listener.getLogger().println(Messages.ShallowTagFetchFailed(e.getMessage()));
+            LOGGER.warning(String.format("Could not fetch tags for '%s': %s", commit, e.getMessage()));
+        }
+
+        try {
+            return git.withRepository(new TagRefsFingerprint(fingerprintTag));
+        } catch (IOException e) {
+            LOGGER.fine(String.format("Could not read tag refs; will not use cached tag info: %s", e.getMessage()));
+            return null;
+        }
+    }
+
+    /**
+     * Fetches the tags for the given commit into a shallow clone.
+     *
+     * @param uri The remote to fetch from.
+     * @param branchRefSpecs The refspecs that the shallow clone was fetched with, which are used to deepen it.
+     */
+    static void fetchTags(GitClient git, URIish uri, List<RefSpec> branchRefSpecs, String commit, int maxDepth,
+                          DescribeOptions describeOptions, TaskListener listener)
+            throws IOException, InterruptedException {
+        Map<String, ObjectId> remoteTags = getRemoteTagTargets(git, uri, describeOptions);
+        if (remoteTags.isEmpty()) {
+            return;
+        }
+        Set<String> targets = new HashSet<>();
+        for (ObjectId target : remoteTags.values()) {
+            targets.add(target.name());
+        }
+        Reachability reachable = git.withRepository(new FindReachableTargets(commit, targets));
+
+        // If there's no tag on the commit itself, deepen the history until it includes a tagged commit
+        // Never deepen to less than the current depth, as that would make the history shallower
+        int depth = reachable.depth;
+        while (reachable.targets.isEmpty() && reachable.shallow && depth < maxDepth) {
+            depth = Math.min(Math.max(INITIAL_DEPTH, depth * DEEPEN_FACTOR), maxDepth);
+            listener.getLogger().println(Messages.DeepeningShallowClone(depth));
+            git.fetch_().from(uri, branchRefSpecs).shallow(true).depth(depth).tags(false).execute();
+            reachable = git.withRepository(new FindReachableTargets(commit, targets));
+        }
+
+        // Fetch only those tags which point at the commits we found, which we already have, so the fetch is cheap
+        List<RefSpec> tagRefSpecs = new ArrayList<>();
+        for (Map.Entry<String, ObjectId> tag : remoteTags.entrySet()) {
+            if (reachable.targets.contains(tag.getValue().name()) && !reachable.localTags.contains(tag.getKey())) {
+                String ref = Constants.R_TAGS + tag.getKey();
+                tagRefSpecs.add(new RefSpec("+" + ref + ":" + ref));
+            }
+        }
+        if (tagRefSpecs.isEmpty()) {
+            return;
+        }
+        listener.getLogger().println(Messages.FetchingShallowTags(tagRefSpecs.size()));
+        git.fetch_().from(uri, tagRefSpecs).tags(false).execute();
+    }
+
+    /** @return The commit that each allowed tag on the remote points to, keyed by tag name. */
+    private static Map<String, ObjectId> getRemoteTagTargets(GitClient git, URIish uri,
+                                                             DescribeOptions describeOptions)
+            throws InterruptedException {
+        Map<String, ObjectId> targets = new HashMap<>();
+        for (Map.Entry<String, ObjectId> ref : git.getRemoteReferences(uri.toString(), null, false, true).entrySet()) {
+            String name = ref.getKey();
+            if (name.startsWith(Constants.R_TAGS)) {
+                name = name.substring(Constants.R_TAGS.length());
+            }
+            boolean peeled = name.endsWith(PEELED_SUFFIX);
+            if (peeled) {
+                name = name.substring(0, name.length() - PEELED_SUFFIX.length());
+            }
+            // For annotated tags, we want the commit it points to, rather than the tag object itself
+            if (describeOptions.isAllowed(name) && (peeled || !targets.containsKey(name))) {
+                targets.put(name, ref.getValue());
+            }
+        }
+        return targets;
+    }
+
+    /** Whether a repository is a shallow clone, and if so, whether it already has the tags needed for a commit. */
+    private static class LocalTags implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private String fingerprint;
+        private boolean shallow;
+        private boolean found;
+    }
+
+    /**
+     * Checks whether a repository is a shallow clone, and if so, whether it already has the tag that was requested, a
+     * tag on the commit itself, or, if the history may be searched, a tag within the history that is present locally.
+     * The fingerprint of the tag refs is returned at the same time, so that the refs only need to be read once; if
+     * only the requested tag matters, only its ref is read.
+     */
+    private static class CheckLocalTags implements RepositoryCallback<LocalTags> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String commit;
+        private final String requestedTag;
+        private final String fingerprintTag;
+        private final boolean searchHistory;
+        private final DescribeOptions describeOptions;
+
+        /** @param fingerprintTag The only tag whose ref should be fingerprinted, or {@code null} for all of them. */
+        CheckLocalTags(String commit, String requestedTag, String fingerprintTag, boolean searchHistory,
+                       DescribeOptions describeOptions) {
+            this.commit = commit;
+            this.requestedTag = requestedTag;
+            this.fingerprintTag = fingerprintTag;
+            this.searchHistory = searchHistory;
+            this.describeOptions = describeOptions;
+        }
+
+        public LocalTags invoke(Repository repo, VirtualChannel channel) throws IOException {
+            LocalTags local = new LocalTags();
+            local.shallow = new File(repo.getDirectory(), "shallow").isFile();
+            if (fingerprintTag != null) {
+                // Only the requested tag matters, so there's no need to read every tag ref
+                Ref ref = repo.exactRef(Constants.R_TAGS + fingerprintTag);
+                local.fingerprint = TagRefsFingerprint.compute(ref);
+                local.found = ref != null;
+                return local;
+            }
+
+            Map<String, Ref> refs = repo.getRefDatabase().getRefs(Constants.R_TAGS);
+            local.fingerprint = TagRefsFingerprint.compute(refs);
+            if (!local.shallow) {
+                return local;
+            }
+            if (requestedTag != null) {
+                local.found = refs.containsKey(requestedTag);
+                return local;
+            }
+
+            Set<ObjectId> targets = new HashSet<>();
+            for (Map.Entry<String, Ref> ref : refs.entrySet()) {
+                if (describeOptions.isAllowed(ref.getKey())) {
+                    Ref peeled = repo.getRefDatabase().peel(ref.getValue());
+                    targets.add(peeled.getPeeledObjectId() != null ? peeled.getPeeledObjectId()
+                            : ref.getValue().getObjectId());
+                }
+            }
+            ObjectId head = ObjectId.fromString(commit);
+            if (targets.isEmpty() || targets.contains(head)) {
+                local.found = !targets.isEmpty();
+                return local;
+            }
+            if (!searchHistory) {
+                return local;
+            }
+            try (RevWalk walk = new RevWalk(repo)) {
+                walk.markStart(walk.parseCommit(head));
+                for (RevCommit c = walk.next(); c != null && !local.found; c = walk.next()) {
+                    local.found = targets.contains(c);
+                }
+            } catch (MissingObjectException e) {
+                // We've reached the boundary of the shallow history
+                LOGGER.fine(String.format("Reached the shallow history boundary at %s", e.getObjectId().name()));
+            }
+            return local;
+        }
+    }
+
+    /** The tagged commits which are reachable from a commit in a shallow clone, and how deep its history is. */
+    private static class Reachability implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Set<String> targets = new HashSet<>();
+        private final Set<String> localTags = new HashSet<>();
+        private int depth;
+        private boolean shallow;
+    }
+
+    /** Finds which of the given commits are reachable from a commit, within the history present locally. */
+    private static class FindReachableTargets implements RepositoryCallback<Reachability> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String commit;
+        private final Set<String> targets;
+
+        FindReachableTargets(String commit, Set<String> targets) {
+            this.commit = commit;
+            this.targets = targets;
+        }
+
+        public Reachability invoke(Repository repo, VirtualChannel channel) throws IOException {
+            Reachability reachability = new Reachability();
+            reachability.localTags.addAll(repo.getRefDatabase().getRefs(Constants.R_TAGS).keySet());
+            try (RevWalk walk = new RevWalk(repo)) {
+                walk.markStart(walk.parseCommit(ObjectId.fromString(commit)));
+                for (RevCommit c = walk.next(); c != null; c = walk.next()) {
+                    reachability.depth++;
+                    if (targets.contains(c.name())) {
+                        reachability.targets.add(c.name());
+                    }
+                }
+            } catch (MissingObjectException e) {
+                // We've reached the boundary of the shallow history
+                LOGGER.fine(String.format("Reached the shallow history boundary at %s", e.getObjectId().name()));
+            }
+            // Once the history has been deepened all the way, git removes the shallow file
+            reachability.shallow = new File(repo.getDirectory(), "shallow").isFile();
+            return reachability;
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Details about a tag and the commit it was found for, beyond its name and message, which can be determined cheaply
+ * while reading the tag from the repository, but not from the output of the git CLI commands we otherwise run.
+ */
+final class TagDetails implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String commit;
+    private final String tagger;
+    private final String date;
+    private final Integer distance;
+    private final List<String> tagsAtCommit;
+    private final List<TagEntry> tags;
+
+    /**
+     * @param commit The SHA-1 of the commit the tag was looked up for.
+     * @param tagger The name and email address of who created the tag, or {@code null} for lightweight tags.
+     * @param date When the tag was created, in ISO-8601 format, or {@code null} for lightweight tags.
+     * @param distance The number of commits between the tag and the commit, or {@code null} if unknown.
+     * @param tagsAtCommit The names of all tags pointing to the commit.
+     */
+    TagDetails(String commit, String tagger, String date, Integer distance, List<String> tagsAtCommit) {
+        this(commit, tagger, date, distance, tagsAtCommit, null);
+    }
+
+    /** @param tags Every tag pointing to the commit, including its message, or {@code null} if they weren't read. */
+    TagDetails(String commit, String tagger, String date, Integer distance, List<String> tagsAtCommit,
+               List<TagEntry> tags) {
+        this.commit = commit;
+        this.tagger = tagger;
+        this.date = date;
+        this.distance = distance;
+        this.tagsAtCommit = new ArrayList<>(tagsAtCommit);
+        Collections.sort(this.tagsAtCommit);
+        this.tags = tags == null ? null : new ArrayList<>(tags);
+    }
+
+    /** @return A copy of these details, with the given tags in place of those that were read. */
+    TagDetails withTags(List<TagEntry> tags) {
+        return new TagDetails(commit, tagger, date, distance, tagsAtCommit, tags);
+    }
+
+    String getCommit() {
+        return commit;
+    }
+
+    String getTagger() {
+        return tagger;
+    }
+
+    String getDate() {
+        return date;
+    }
+
+    Integer getDistance() {
+        return distance;
+    }
+
+    List<String> getTagsAtCommit() {
+        return Collections.unmodifiableList(tagsAtCommit);
+    }
+
+    /** @return Every tag pointing to the commit, in the order they were chosen from, or {@code null} if not read. */
+    List<TagEntry> getTags() {
+        return tags == null ? null : Collections.unmodifiableList(tags);
+    }
+
+}
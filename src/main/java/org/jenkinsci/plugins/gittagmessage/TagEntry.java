@@ -0,0 +1,61 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+import java.io.Serializable;
+
+/** One of the tags pointing at a commit, as read by {@link CommitTagsReader}. */
+final class TagEntry implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String name;
+    private final String message;
+    private final String tagger;
+    private final String date;
+    private final long time;
+    private final boolean annotated;
+
+    /**
+     * @param message The trimmed tag message, or {@code null} if there is none.
+     * @param tagger The name and email address of who created the tag, or {@code null} for lightweight tags.
+     * @param date When the tag was created, in ISO-8601 format, or {@code null} for lightweight tags.
+     * @param time When the tag was created, in milliseconds since the epoch, or zero for lightweight tags.
+     */
+    TagEntry(String name, String message, String tagger, String date, long time, boolean annotated) {
+        this.name = name;
+        this.message = message;
+        this.tagger = tagger;
+        this.date = date;
+        this.time = time;
+        this.annotated = annotated;
+    }
+
+    /** @return A copy of this tag, with the given message. */
+    TagEntry withMessage(String message) {
+        return new TagEntry(name, message, tagger, date, time, annotated);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getMessage() {
+        return message;
+    }
+
+    String getTagger() {
+        return tagger;
+    }
+
+    String getDate() {
+        return date;
+    }
+
+    long getTime() {
+        return time;
+    }
+
+    boolean isAnnotated() {
+        return annotated;
+    }
+
+}
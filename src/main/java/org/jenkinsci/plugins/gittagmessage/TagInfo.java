@@ -0,0 +1,92 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+import java.io.Serializable;
+
+/** The outcome of looking up the git tag for a commit: its name and message, or the lack of a tag. */
+final class TagInfo implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** No tag could be determined for the commit. */
+    static final TagInfo NONE = new TagInfo(null, null, false);
+
+    private final String name;
+    private final String message;
+    private final boolean exists;
+    private final TagDetails details;
+    private final ResolutionTimings timings;
+    private final boolean degraded;
+
+    private TagInfo(String name, String message, boolean exists, TagDetails details, ResolutionTimings timings,
+                    boolean degraded) {
+        this.name = name;
+        this.message = message;
+        this.exists = exists;
+        this.details = details;
+        this.timings = timings;
+        this.degraded = degraded;
+    }
+
+    private TagInfo(String name, String message, boolean exists) {
+        this(name, message, exists, null, null, false);
+    }
+
+    /** @return A copy of this info, with the time spent resolving it attached. */
+    TagInfo withTimings(ResolutionTimings timings) {
+        return new TagInfo(name, message, exists, details, timings, degraded);
+    }
+
+    /** @return A copy of this info, with further details about the tag and the commit attached. */
+    TagInfo withDetails(TagDetails details) {
+        return new TagInfo(name, message, exists, details, timings, degraded);
+    }
+
+    /** @return A copy of this info, marked as the result of a cheaper lookup, after the full lookup ran out of time. */
+    TagInfo asDegraded() {
+        return new TagInfo(name, message, exists, details, timings, true);
+    }
+
+    /** @return Info for an existing tag, with an optional (already trimmed) message. */
+    static TagInfo found(String name, String message) {
+        return new TagInfo(name, message, true);
+    }
+
+    /** @return Info for a tag name which was determined, but for which git has no information. */
+    static TagInfo missing(String name) {
+        return new TagInfo(name, null, false);
+    }
+
+    /** @return The tag name, or {@code null} if no tag could be determined. */
+    String getName() {
+        return name;
+    }
+
+    /** @return The trimmed tag message, or {@code null} if there is none. */
+    String getMessage() {
+        return message;
+    }
+
+    /** @return {@code true} if git has information about the tag named by {@link #getName()}. */
+    boolean exists() {
+        return exists;
+    }
+
+    /** @return Further details about the tag, or {@code null} if they weren't determined by the lookup. */
+    TagDetails getDetails() {
+        return details;
+    }
+
+    /**
+     * @return {@code true} if this info may be incomplete, because the full lookup exceeded its budget; such info
+     *         shouldn't be reused for later builds.
+     */
+    boolean isDegraded() {
+        return degraded;
+    }
+
+    /** @return The time spent resolving this info, or {@code null} if it was shared from another lookup. */
+    ResolutionTimings getTimings() {
+        return timings;
+    }
+
+}
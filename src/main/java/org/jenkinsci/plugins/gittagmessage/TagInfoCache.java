@@ -0,0 +1,341 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded, least-recently-used cache of tag lookups, held on the controller.
+ * <p>
+ * Entries are keyed by remote URLs, commit and lookup mode, and are only valid for the set of tag refs they were
+ * resolved against: if a fetch has since added, moved or removed a tag, the entry is dropped on the next lookup.
+ * <p>
+ * If multiple builds look up the same commit at the same time, e.g. when a new tag triggers many jobs at once, only
+ * one of them resolves the tag info via git; the others wait for, and share, its result. Lookups with different time
+ * limits aren't shared, as the one with the shorter limit may have had to settle for a cheaper lookup.
+ * <p>
+ * As tag messages can be long, the cache is bounded by the total size of the messages it holds, as well as by the
+ * number of entries; tag info with a message larger than that bound is never cached.
+ */
+final class TagInfoCache {
+
+    private static final Logger LOGGER = Logger.getLogger(TagInfoCache.class.getName());
+
+    /** Maximum number of lookups to retain; can be overridden via a system property. */
+    private static final int MAX_ENTRIES = Integer.getInteger(TagInfoCache.class.getName() + ".maxEntries", 512);
+
+    /** Maximum total size of the tag messages to retain, in characters; can be overridden via a system property. */
+    private static final long MAX_MESSAGE_CHARS =
+            Long.getLong(TagInfoCache.class.getName() + ".maxMessageChars", 8 * 1024 * 1024);
+
+    private static final TagInfoCache INSTANCE = new TagInfoCache(MAX_ENTRIES, MAX_MESSAGE_CHARS);
+
+    private final int maxEntries;
+    private final long maxMessageChars;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long messageChars;
+    private final ConcurrentMap<InFlightKey, CompletableFuture<TagInfo>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    TagInfoCache(int maxEntries) {
+        this(maxEntries, MAX_MESSAGE_CHARS);
+    }
+
+    /**
+     * @param maxEntries Maximum number of lookups to retain.
+     * @param maxMessageChars Maximum total length of the tag messages to retain.
+     */
+    TagInfoCache(int maxEntries, long maxMessageChars) {
+        this.maxEntries = maxEntries;
+        this.maxMessageChars = maxMessageChars;
+    }
+
+    /** @return The cache shared by all builds. */
+    static TagInfoCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param key The lookup to find.
+     * @param tagRefsFingerprint Fingerprint of the tag refs currently in the repository.
+     * @return The cached tag info, or {@code null} if there is none, or it was resolved against different tag refs.
+     */
+    synchronized TagInfo lookup(Key key, String tagRefsFingerprint) {
+        Entry entry = entries.get(key);
+        if (entry != null && !entry.tagRefsFingerprint.equals(tagRefsFingerprint)) {
+            remove(key);
+            invalidations.incrementAndGet();
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.tagInfo;
+    }
+
+    /**
+     * Returns the cached tag info for a lookup or, if there is none, resolves it with the given loader and caches it.
+     * <p>
+     * Concurrent calls for the same lookup, tag refs and time limit share a single call to a loader.
+     *
+     * @param tagRefsFingerprint Fingerprint of the tag refs currently in the repository.
+     * @param timeoutSeconds How long the loader may take before it falls back to a cheaper lookup, or zero if there
+     *                       is no limit.
+     * @param loader Resolves the tag info via git.
+     * @return The tag info; never {@code null}.
+     */
+    TagInfo get(Key key, String tagRefsFingerprint, int timeoutSeconds, Loader loader)
+            throws IOException, InterruptedException {
+        TagInfo tagInfo = lookup(key, tagRefsFingerprint);
+        if (tagInfo != null) {
+            return tagInfo;
+        }
+
+        InFlightKey inFlightKey = new InFlightKey(key, tagRefsFingerprint, timeoutSeconds);
+        CompletableFuture<TagInfo> future = new CompletableFuture<>();
+        CompletableFuture<TagInfo> existing = inFlight.putIfAbsent(inFlightKey, future);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            try {
+                return existing.get();
+            } catch (ExecutionException e) {
+                // The other lookup failed, e.g. its build was aborted; we should try for ourselves
+                LOGGER.log(Level.FINE, String.format("Shared lookup for %s failed; retrying", key), e.getCause());
+                return loader.load();
+            }
+        }
+
+        try {
+            tagInfo = loader.load();
+            // Only the caller which performed the lookup should see how long it took
+            TagInfo shared = tagInfo.withTimings(null);
+            if (!tagInfo.isDegraded()) {
+                // A lookup which ran out of time may have missed the tag, so only share it with those waiting now,
+                // which have the same time limit
+                put(key, tagRefsFingerprint, shared);
+            }
+            future.complete(shared);
+            return tagInfo;
+        } catch (IOException | InterruptedException | RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(inFlightKey, future);
+        }
+    }
+
+    /** Stores the tag info resolved for the given lookup, against the given tag refs. */
+    synchronized void put(Key key, String tagRefsFingerprint, TagInfo tagInfo) {
+        remove(key);
+        Entry entry = new Entry(tagRefsFingerprint, tagInfo);
+        if (entry.messageChars > maxMessageChars) {
+            // This would evict everything else, so it's better not to cache it at all
+            return;
+        }
+        entries.put(key, entry);
+        messageChars += entry.messageChars;
+
+        // Evict the least recently used entries until we're within both bounds again
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (entries.size() > maxEntries || messageChars > maxMessageChars) {
+            messageChars -= eldest.next().messageChars;
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void remove(Key key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            messageChars -= entry.messageChars;
+        }
+    }
+
+    /** Removes all entries, leaving the counters intact. */
+    synchronized void clear() {
+        entries.clear();
+        messageChars = 0;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /** @return Total length of the tag messages currently cached. */
+    synchronized long getMessageChars() {
+        return messageChars;
+    }
+
+    long getHitCount() {
+        return hits.get();
+    }
+
+    long getMissCount() {
+        return misses.get();
+    }
+
+    /** @return Number of lookups which waited for the result of an identical lookup already in progress. */
+    long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /** @return Number of entries dropped because the tag refs in the repository had changed. */
+    long getInvalidationCount() {
+        return invalidations.get();
+    }
+
+    /** @return Number of entries dropped to keep the cache within its size bound. */
+    long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /** Identifies a single tag lookup: which repository, which commit, and how the tag should be chosen. */
+    static final class Key {
+
+        private final String remoteUrls;
+        private final String commit;
+        private final boolean useMostRecentTag;
+        private final String requestedTag;
+        private final String describeOptions;
+        private final TagOrder tagOrder;
+        private final int maxDescribeDepth;
+        private final boolean inProcess;
+        private final boolean useNearestTagIndex;
+
+        /**
+         * @param remoteUrls The URLs of the remote repositories that were fetched.
+         * @param commit The SHA-1 of the commit that was checked out.
+         * @param useMostRecentTag Whether the nearest tag in history may be used.
+         * @param requestedTag The tag name explicitly requested via the refspec, or {@code null}.
+         * @param describeOptions Limits which tags may be chosen.
+         * @param tagOrder How the primary tag is chosen, if all tags on the commit are read; otherwise {@code null}.
+         * @param maxDescribeDepth How many commits may be searched for the nearest tag, or zero if there is no limit.
+         * @param inProcess Whether the nearest tag is found by walking the history in-process, rather than by
+         *                  {@code git describe}, which may choose a different tag where history has been merged.
+         * @param useNearestTagIndex Whether the nearest tag may be read from the repository's index, which may also
+         *                           choose a different tag to {@code git describe}.
+         */
+        Key(Collection<String> remoteUrls, String commit, boolean useMostRecentTag, String requestedTag,
+            DescribeOptions describeOptions, TagOrder tagOrder, int maxDescribeDepth, boolean inProcess,
+            boolean useNearestTagIndex) {
+            this.remoteUrls = String.join(" ", new TreeSet<>(remoteUrls));
+            this.commit = commit;
+            this.useMostRecentTag = useMostRecentTag;
+            this.requestedTag = requestedTag;
+            this.describeOptions = describeOptions.toString();
+            this.tagOrder = tagOrder;
+            this.maxDescribeDepth = maxDescribeDepth;
+            this.inProcess = inProcess;
+            this.useNearestTagIndex = useNearestTagIndex;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return useMostRecentTag == other.useMostRecentTag
+                    && inProcess == other.inProcess
+                    && useNearestTagIndex == other.useNearestTagIndex
+                    && remoteUrls.equals(other.remoteUrls)
+                    && Objects.equals(commit, other.commit)
+                    && Objects.equals(requestedTag, other.requestedTag)
+                    && describeOptions.equals(other.describeOptions)
+                    && tagOrder == other.tagOrder
+                    && maxDescribeDepth == other.maxDescribeDepth;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(remoteUrls, commit, useMostRecentTag, requestedTag, describeOptions, tagOrder,
+                    maxDescribeDepth, inProcess, useNearestTagIndex);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s@%s (mostRecent=%b, tag=%s, %s, order=%s, depth=%d, inProcess=%b, index=%b)",
+                    remoteUrls, commit, useMostRecentTag, requestedTag, describeOptions, tagOrder, maxDescribeDepth,
+                    inProcess, useNearestTagIndex);
+        }
+    }
+
+    /** Resolves tag info via git, when it isn't already cached. */
+    interface Loader {
+        TagInfo load() throws IOException, InterruptedException;
+    }
+
+    private static final class InFlightKey {
+        private final Key key;
+        private final String tagRefsFingerprint;
+        private final int timeoutSeconds;
+
+        InFlightKey(Key key, String tagRefsFingerprint, int timeoutSeconds) {
+            this.key = key;
+            this.tagRefsFingerprint = tagRefsFingerprint;
+            this.timeoutSeconds = timeoutSeconds;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof InFlightKey)) {
+                return false;
+            }
+            InFlightKey other = (InFlightKey) o;
+            return key.equals(other.key) && tagRefsFingerprint.equals(other.tagRefsFingerprint)
+                    && timeoutSeconds == other.timeoutSeconds;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(key, tagRefsFingerprint, timeoutSeconds);
+        }
+    }
+
+    private static final class Entry {
+        private final String tagRefsFingerprint;
+        private final TagInfo tagInfo;
+        private final long messageChars;
+
+        Entry(String tagRefsFingerprint, TagInfo tagInfo) {
+            this.tagRefsFingerprint = tagRefsFingerprint;
+            this.tagInfo = tagInfo;
+            this.messageChars = countMessageChars(tagInfo);
+        }
+
+        /** @return Total length of the messages held by the given tag info, including those of all tags read. */
+        private static long countMessageChars(TagInfo tagInfo) {
+            long chars = tagInfo.getMessage() == null ? 0 : tagInfo.getMessage().length();
+            TagDetails details = tagInfo.getDetails();
+            if (details != null && details.getTags() != null) {
+                for (TagEntry tag : details.getTags()) {
+                    chars += tag.getMessage() == null ? 0 : tag.getMessage().length();
+                }
+            }
+            return chars;
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+import org.jvnet.localizer.Localizable;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** Determines which of several tags pointing at the same commit is exported as the primary tag. */
+public enum TagOrder {
+
+    /** As {@code git describe --tags} does: annotated tags first, then the newest, then alphabetically. */
+    DESCRIBE(Messages._TagOrder_Describe(), Comparator.comparing(TagEntry::isAnnotated).reversed()
+            .thenComparing(Comparator.comparingLong(TagEntry::getTime).reversed())
+            .thenComparing(TagEntry::getName)),
+
+    /** The most recently created tag; lightweight tags are treated as the oldest. */
+    NEWEST(Messages._TagOrder_Newest(), Comparator.comparingLong(TagEntry::getTime).reversed()
+            .thenComparing(TagEntry::getName)),
+
+    /** The first tag in alphabetical order. */
+    ALPHABETICAL(Messages._TagOrder_Alphabetical(), Comparator.comparing(TagEntry::getName)),
+
+    /** The tag with the highest version number, comparing each run of digits numerically, e.g. 1.10 after 1.9. */
+    HIGHEST_VERSION(Messages._TagOrder_HighestVersion(),
+            Comparator.comparing(TagEntry::getName, TagOrder::compareVersions).reversed()
+                    .thenComparing(TagEntry::getName));
+
+    private static final Pattern DIGITS = Pattern.compile("\\d+");
+
+    private final Localizable displayName;
+    private final Comparator<TagEntry> comparator;
+
+    TagOrder(Localizable displayName, Comparator<TagEntry> comparator) {
+        this.displayName = displayName;
+        this.comparator = comparator;
+    }
+
+    public String getDisplayName() {
+        return displayName.toString();
+    }
+
+    /** @return The primary tag among the given tags, or {@code null} if there are none. */
+    TagEntry select(List<TagEntry> tags) {
+        return tags.stream().min(comparator).orElse(null);
+    }
+
+    /** Compares two tag names as version numbers, so that runs of digits are compared by their numeric value. */
+    static int compareVersions(String a, String b) {
+        Matcher ma = DIGITS.matcher(a);
+        Matcher mb = DIGITS.matcher(b);
+        int ia = 0;
+        int ib = 0;
+        while (ma.find(ia) && mb.find(ib)) {
+            int prefix = a.substring(ia, ma.start()).compareTo(b.substring(ib, mb.start()));
+            if (prefix != 0) {
+                return prefix;
+            }
+            // Compare by length first, so that numbers of any size can be compared without parsing them
+            String na = ma.group().replaceFirst("^0+(?=\\d)", "");
+            String nb = mb.group().replaceFirst("^0+(?=\\d)", "");
+            int number = na.length() != nb.length() ? Integer.compare(na.length(), nb.length()) : na.compareTo(nb);
+            if (number != 0) {
+                return number;
+            }
+            ia = ma.end();
+            ib = mb.end();
+        }
+        return a.substring(ia).compareTo(b.substring(ib));
+    }
+
+}
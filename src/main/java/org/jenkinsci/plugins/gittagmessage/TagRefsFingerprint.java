@@ -0,0 +1,76 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.jenkinsci.plugins.gitclient.RepositoryCallback;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Computes a digest of all tag refs in a repository, so that cached lookups can be invalidated when a fetch changes
+ * the tags. This reads the refs directly, on the node holding the repository, without starting a git process.
+ * <p>
+ * If only a single, requested, tag matters, only its ref is read, and the fingerprint is the object it points to.
+ */
+class TagRefsFingerprint implements RepositoryCallback<String> {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Fingerprint of a requested tag which doesn't exist. */
+    private static final String MISSING = "-";
+
+    private final String tagName;
+
+    /** Fingerprints all of the tag refs. */
+    TagRefsFingerprint() {
+        this(null);
+    }
+
+    /** @param tagName The only tag whose ref should be fingerprinted, or {@code null} for all of them. */
+    TagRefsFingerprint(String tagName) {
+        this.tagName = tagName;
+    }
+
+    public String invoke(Repository repo, VirtualChannel channel) throws IOException {
+        if (tagName != null) {
+            return compute(repo.exactRef(Constants.R_TAGS + tagName));
+        }
+        return compute(repo.getRefDatabase().getRefs(Constants.R_TAGS));
+    }
+
+    /**
+     * @param tagRef The ref of a single tag, or {@code null} if it doesn't exist.
+     * @return The object the tag points to, which changes if the tag is moved, or re-created with a new message.
+     */
+    static String compute(Ref tagRef) {
+        return tagRef == null || tagRef.getObjectId() == null ? MISSING : tagRef.getObjectId().name();
+    }
+
+    /** @param refs The tag refs in a repository, keyed by tag name, as already read by the caller. */
+    static String compute(Map<String, Ref> refs) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        Map<String, Ref> tags = new TreeMap<>(refs);
+        for (Map.Entry<String, Ref> tag : tags.entrySet()) {
+            digest.update(tag.getKey().getBytes(StandardCharsets.UTF_8));
+            if (tag.getValue().getObjectId() != null) {
+                digest.update(tag.getValue().getObjectId().name().getBytes(StandardCharsets.US_ASCII));
+            }
+            digest.update((byte) '\n');
+        }
+        return Util.toHexString(digest.digest());
+    }
+
+}
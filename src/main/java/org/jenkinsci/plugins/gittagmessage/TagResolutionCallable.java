@@ -0,0 +1,138 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+import hudson.EnvVars;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.util.ArgumentListBuilder;
+import jenkins.MasterToSlaveFileCallable;
+import org.jenkinsci.plugins.gitclient.Git;
+import org.jenkinsci.plugins.gitclient.GitClient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Resolves the tag name and message for a commit entirely on the node holding the workspace.
+ * <p>
+ * Rather than making one remote call per git command via the {@link GitClient} proxy, this is sent to the agent in a
+ * single call, and only the resulting {@link TagInfo} is sent back to the controller. This includes reading all of
+ * the tags on the commit, and checking whether the previous build's nearest tag still applies, if requested.
+ */
+class TagResolutionCallable extends MasterToSlaveFileCallable<TagInfo> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOGGER = Logger.getLogger(TagResolutionCallable.class.getName());
+
+    private final String gitExe;
+    private final EnvVars environment;
+    private final String commit;
+    private final String requestedTag;
+    private final boolean useMostRecentTag;
+    private final boolean useNearestTagIndex;
+    private final DescribeOptions describeOptions;
+    private final TagOrder tagOrder;
+    private final String previousCommit;
+    private final String previousTag;
+
+    /**
+     * @param gitExe The git executable to use on the agent.
+     * @param environment The build environment, in which git should be run.
+     * @param commit The SHA-1 of the commit that was checked out.
+     * @param requestedTag The tag name that triggered this build, or {@code null} if it should be determined.
+     * @param useMostRecentTag Whether the nearest tag in history may be used.
+     * @param useNearestTagIndex Whether to look up, and record, the nearest tag in the repository's index.
+     * @param describeOptions Limits which tags may be chosen, if none was requested.
+     * @param tagOrder How to choose between all of the tags on the commit, or {@code null} if they needn't be read.
+     * @param previousCommit The commit checked out by the previous build, or {@code null} if it shouldn't be checked.
+     * @param previousTag The nearest tag found by the previous build, or {@code null} if it shouldn't be checked.
+     */
+    TagResolutionCallable(String gitExe, EnvVars environment, String commit, String requestedTag,
+                          boolean useMostRecentTag, boolean useNearestTagIndex, DescribeOptions describeOptions,
+                          TagOrder tagOrder, String previousCommit, String previousTag) {
+        this.gitExe = gitExe;
+        this.environment = environment;
+        this.commit = commit;
+        this.requestedTag = requestedTag;
+        this.useMostRecentTag = useMostRecentTag;
+        this.useNearestTagIndex = useNearestTagIndex;
+        this.describeOptions = describeOptions;
+        this.tagOrder = tagOrder;
+        this.previousCommit = previousCommit;
+        this.previousTag = previousTag;
+    }
+
+    public TagInfo invoke(File workTree, VirtualChannel channel) throws IOException, InterruptedException {
+        // We're already on the agent, so this client runs git directly, without any further remoting
+        GitClient git = Git.with(TaskListener.NULL, environment).in(workTree).using(gitExe).getClient();
+        ResolutionTimings timings = new ResolutionTimings();
+
+        // Read all of the tags on the commit in one go, if we need to choose between them, or export them all
+        if (tagOrder != null) {
+            long start = ResolutionTimings.start();
+            List<TagEntry> tags = GitTagMessageExtension.readAllTags(git, commit, describeOptions);
+            timings.record(ResolutionTimings.Phase.MESSAGE, start);
+            if (tags != null && (!tags.isEmpty() || requestedTag == null && !useMostRecentTag)) {
+                return GitTagMessageExtension.toTagInfo(commit, requestedTag, tags, tagOrder).withTimings(timings);
+            }
+        }
+
+        String tagName = requestedTag;
+        if (tagName == null && previousTag != null) {
+            tagName = GitTagMessageExtension.getNearestTagSince(git, previousCommit, previousTag, commit,
+                    describeOptions);
+        }
+        if (tagName == null && !describeOptions.isEmpty() && !GitTagMessageExtension.isCommandLineGit(gitExe)) {
+            // JGit has no executable for us to run "git describe" with, but we can apply the options ourselves
+            return git.withRepository(new JGitTagResolver(commit, null, useMostRecentTag, describeOptions));
+        }
+        return resolve(git, workTree, tagName, timings).withTimings(timings);
+    }
+
+    /** @param tagName The tag name that was requested, or already determined, or {@code null} to determine it. */
+    private TagInfo resolve(GitClient git, File workTree, String tagName, ResolutionTimings timings)
+            throws IOException, InterruptedException {
+        if (tagName != null || describeOptions.isEmpty()) {
+            return GitTagMessageExtension.resolveTag(git, commit, tagName, useMostRecentTag,
+                    useNearestTagIndex, timings);
+        }
+
+        long start = ResolutionTimings.start();
+        String tagDescription = describe(workTree);
+        timings.record(ResolutionTimings.Phase.DESCRIBE, start);
+        String describedTagName = GitTagMessageExtension.parseTagName(tagDescription, commit, useMostRecentTag,
+                timings);
+        if (describedTagName == null) {
+            return TagInfo.NONE;
+        }
+        return GitTagMessageExtension.readTagInfo(git, describedTagName, timings);
+    }
+
+    /**
+     * Runs "git describe" with the configured options, which {@link GitClient#describe(String)} doesn't support.
+     *
+     * @return The output of "git describe", or {@code null} if it failed, e.g. because there was no matching tag.
+     */
+    private String describe(File workTree) throws IOException, InterruptedException {
+        ArgumentListBuilder args = new ArgumentListBuilder(gitExe, "describe", "--tags");
+        describeOptions.addTo(args);
+        args.add(commit);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int status = new Launcher.LocalLauncher(TaskListener.NULL).launch()
+                .cmds(args).envs(environment).pwd(workTree).stdout(out).stderr(err).join();
+        if (status != 0) {
+            LOGGER.fine(String.format("Fetching tag info for '%s' failed: %s", commit,
+                    err.toString(StandardCharsets.UTF_8.name()).trim()));
+            return null;
+        }
+        return out.toString(StandardCharsets.UTF_8.name());
+    }
+
+}
@@ -0,0 +1,301 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+import hudson.Extension;
+import hudson.init.Initializer;
+import hudson.model.Item;
+import hudson.model.listeners.ItemListener;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static hudson.init.InitMilestone.PLUGINS_STARTED;
+
+/**
+ * Records how long each phase of tag resolution takes, per job and across all jobs, and how lookups ended.
+ * <p>
+ * These are published via JMX as {@value #OBJECT_NAME}, as numeric attributes which monitoring tools can graph.
+ * Per-job stats are dropped when the job is deleted, and move with it when it's renamed.
+ */
+public final class TagResolutionMetrics implements TagResolutionMetricsMBean {
+
+    private static final Logger LOGGER = Logger.getLogger(TagResolutionMetrics.class.getName());
+
+    static final String OBJECT_NAME = "org.jenkinsci.plugins.gittagmessage:type=TagResolutionMetrics";
+
+    private static final TagResolutionMetrics INSTANCE = new TagResolutionMetrics();
+
+    private final PhaseStats aggregate = new PhaseStats();
+    private final ConcurrentMap<String, PhaseStats> jobs = new ConcurrentHashMap<>();
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong noTag = new AtomicLong();
+    private final AtomicLong offsetRejected = new AtomicLong();
+    private final AtomicLong missingTag = new AtomicLong();
+
+    private TagResolutionMetrics() {}
+
+    static TagResolutionMetrics get() {
+        return INSTANCE;
+    }
+
+    @Initializer(after = PLUGINS_STARTED)
+    public static void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "Could not register tag resolution metrics with JMX", e);
+        }
+    }
+
+    /**
+     * Records a completed lookup.
+     *
+     * @param jobFullName The full name of the job which performed the lookup.
+     * @param tag The lookup result.
+     * @param timings The time spent in each phase; empty if the result came from the cache.
+     */
+    void record(String jobFullName, TagInfo tag, ResolutionTimings timings) {
+        lookups.incrementAndGet();
+        if (tag.getName() == null) {
+            noTag.incrementAndGet();
+        } else if (!tag.exists()) {
+            missingTag.incrementAndGet();
+        }
+        if (timings.isOffsetRejected()) {
+            offsetRejected.incrementAndGet();
+        }
+
+        aggregate.record(timings);
+        jobs.computeIfAbsent(jobFullName, name -> new PhaseStats()).record(timings);
+    }
+
+    public long getLookupCount() {
+        return lookups.get();
+    }
+
+    public long getNoTagCount() {
+        return noTag.get();
+    }
+
+    public long getOffsetRejectedCount() {
+        return offsetRejected.get();
+    }
+
+    public long getMissingTagCount() {
+        return missingTag.get();
+    }
+
+    public long getCacheHitCount() {
+        return TagInfoCache.get().getHitCount();
+    }
+
+    public long getCacheMissCount() {
+        return TagInfoCache.get().getMissCount();
+    }
+
+    public TabularData getPhases() {
+        TabularData phases = new TabularDataSupport(PhaseStats.PHASES_TYPE);
+        aggregate.addRows(phases, null);
+        return phases;
+    }
+
+    public TabularData getJobPhases() {
+        TabularData phases = new TabularDataSupport(PhaseStats.JOB_PHASES_TYPE);
+        for (Map.Entry<String, PhaseStats> job : jobs.entrySet()) {
+            job.getValue().addRows(phases, job.getKey());
+        }
+        return phases;
+    }
+
+    public String getSummary() {
+        return aggregate.toString();
+    }
+
+    /** Drops the stats of the given item, and of any jobs within it, e.g. if it's a folder. */
+    void remove(String fullName) {
+        jobs.keySet().removeIf(name -> name.equals(fullName) || name.startsWith(fullName + '/'));
+    }
+
+    /** Moves the stats of the given item, and of any jobs within it, to its new name. */
+    void rename(String oldFullName, String newFullName) {
+        for (Map.Entry<String, PhaseStats> job : jobs.entrySet()) {
+            String name = job.getKey();
+            if (name.equals(oldFullName) || name.startsWith(oldFullName + '/')) {
+                jobs.remove(name, job.getValue());
+                jobs.put(newFullName + name.substring(oldFullName.length()), job.getValue());
+            }
+        }
+    }
+
+    /** Keeps the per-job stats in step with the jobs that exist, so that they don't grow without bound. */
+    @Extension
+    public static class JobListener extends ItemListener {
+
+        @Override
+        public void onDeleted(Item item) {
+            INSTANCE.remove(item.getFullName());
+        }
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            INSTANCE.rename(oldFullName, newFullName);
+        }
+    }
+
+    /** Count, total, max and a coarse histogram of durations for each phase. */
+    private static final class PhaseStats {
+
+        /** Upper bounds, in milliseconds, of each histogram bucket; the final bucket is unbounded. */
+        private static final long[] BUCKETS_MS = { 1, 10, 100, 1000, 10000 };
+
+        /** JMX type of the stats of one phase, optionally for one job. */
+        private static final CompositeType PHASE_TYPE = phaseType(false);
+        private static final CompositeType JOB_PHASE_TYPE = phaseType(true);
+
+        static final TabularType PHASES_TYPE = tabularType(PHASE_TYPE, "phase");
+        static final TabularType JOB_PHASES_TYPE = tabularType(JOB_PHASE_TYPE, "job", "phase");
+
+        private final int phases = ResolutionTimings.Phase.values().length;
+        private final AtomicLongArray counts = new AtomicLongArray(phases);
+        private final AtomicLongArray totalNanos = new AtomicLongArray(phases);
+        private final AtomicLongArray maxNanos = new AtomicLongArray(phases);
+        private final AtomicLongArray histogram = new AtomicLongArray(phases * (BUCKETS_MS.length + 1));
+
+        void record(ResolutionTimings timings) {
+            for (ResolutionTimings.Phase phase : ResolutionTimings.Phase.values()) {
+                long nanos = timings.getNanos(phase);
+                if (nanos == 0) {
+                    continue;
+                }
+                int i = phase.ordinal();
+                counts.incrementAndGet(i);
+                totalNanos.addAndGet(i, nanos);
+                for (long max = maxNanos.get(i); nanos > max && !maxNanos.compareAndSet(i, max, nanos); ) {
+                    max = maxNanos.get(i);
+                }
+                histogram.incrementAndGet(i * (BUCKETS_MS.length + 1) + bucket(nanos));
+            }
+        }
+
+        /**
+         * Adds a row for each phase to the given table.
+         *
+         * @param jobFullName The job which these stats belong to, or {@code null} if they're across all jobs.
+         */
+        void addRows(TabularData table, String jobFullName) {
+            CompositeType type = jobFullName == null ? PHASE_TYPE : JOB_PHASE_TYPE;
+            for (ResolutionTimings.Phase phase : ResolutionTimings.Phase.values()) {
+                int i = phase.ordinal();
+                long count = counts.get(i);
+                Map<String, Object> values = new HashMap<>();
+                if (jobFullName != null) {
+                    values.put("job", jobFullName);
+                }
+                values.put("phase", phase.name());
+                values.put("count", count);
+                values.put("totalMillis", TimeUnit.NANOSECONDS.toMillis(totalNanos.get(i)));
+                values.put("meanMillis", count == 0 ? 0L : TimeUnit.NANOSECONDS.toMillis(totalNanos.get(i) / count));
+                values.put("maxMillis", TimeUnit.NANOSECONDS.toMillis(maxNanos.get(i)));
+                for (int b = 0; b <= BUCKETS_MS.length; b++) {
+                    values.put(bucketName(b), histogram.get(i * (BUCKETS_MS.length + 1) + b));
+                }
+                try {
+                    table.put(new CompositeDataSupport(type, values));
+                } catch (OpenDataException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+
+        /** @return The name of the given histogram bucket, e.g. "under10ms". */
+        private static String bucketName(int bucket) {
+            return bucket < BUCKETS_MS.length ? "under" + BUCKETS_MS[bucket] + "ms"
+                    : "atLeast" + BUCKETS_MS[bucket - 1] + "ms";
+        }
+
+        private static CompositeType phaseType(boolean perJob) {
+            List<String> names = new ArrayList<>();
+            List<String> descriptions = new ArrayList<>();
+            if (perJob) {
+                names.add("job");
+                descriptions.add("Full name of the job");
+            }
+            names.addAll(Arrays.asList("phase", "count", "totalMillis", "meanMillis", "maxMillis"));
+            descriptions.addAll(Arrays.asList("Phase of the lookup",
+                    "Number of lookups which spent time in the phase", "Total time spent in the phase",
+                    "Mean time spent in the phase", "Longest time spent in the phase"));
+            for (int b = 0; b <= BUCKETS_MS.length; b++) {
+                names.add(bucketName(b));
+                descriptions.add("Number of lookups where the phase took " + bucketName(b));
+            }
+            List<OpenType<?>> types = new ArrayList<>();
+            for (String name : names) {
+                types.add(name.equals("job") || name.equals("phase") ? SimpleType.STRING : SimpleType.LONG);
+            }
+            try {
+                return new CompositeType(perJob ? "JobPhaseStats" : "PhaseStats",
+                        "Time spent in a phase of tag lookups", names.toArray(new String[0]),
+                        descriptions.toArray(new String[0]), types.toArray(new OpenType<?>[0]));
+            } catch (OpenDataException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private static TabularType tabularType(CompositeType rowType, String... index) {
+            try {
+                return new TabularType(rowType.getTypeName() + "Table", rowType.getDescription(), rowType, index);
+            } catch (OpenDataException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private static int bucket(long nanos) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            int bucket = 0;
+            while (bucket < BUCKETS_MS.length && millis >= BUCKETS_MS[bucket]) {
+                bucket++;
+            }
+            return bucket;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder summary = new StringBuilder();
+            for (ResolutionTimings.Phase phase : ResolutionTimings.Phase.values()) {
+                int i = phase.ordinal();
+                long count = counts.get(i);
+                summary.append(String.format("%s: count=%d, mean=%d ms, max=%d ms, histogram=[", phase, count,
+                        count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos.get(i) / count),
+                        TimeUnit.NANOSECONDS.toMillis(maxNanos.get(i))));
+                for (int b = 0; b <= BUCKETS_MS.length; b++) {
+                    summary.append(b == 0 ? "" : ", ")
+                            .append(b < BUCKETS_MS.length ? "<" + BUCKETS_MS[b] : ">=" + BUCKETS_MS[b - 1])
+                            .append("ms:").append(histogram.get(i * (BUCKETS_MS.length + 1) + b));
+                }
+                summary.append("]\n");
+            }
+            return summary.toString();
+        }
+    }
+
+}
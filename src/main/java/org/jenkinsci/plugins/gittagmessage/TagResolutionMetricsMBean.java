@@ -0,0 +1,36 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+import javax.management.openmbean.TabularData;
+
+/** JMX view of {@link TagResolutionMetrics}. */
+public interface TagResolutionMetricsMBean {
+
+    /** @return Number of tag lookups, including those served from the cache. */
+    long getLookupCount();
+
+    /** @return Number of lookups which found no tag. */
+    long getNoTagCount();
+
+    /** @return Number of lookups where the nearest tag was rejected, as it didn't point to the commit itself. */
+    long getOffsetRejectedCount();
+
+    /** @return Number of lookups where a tag name was found, but git had no information for it. */
+    long getMissingTagCount();
+
+    long getCacheHitCount();
+
+    long getCacheMissCount();
+
+    /**
+     * @return Time spent in each phase across all jobs, with a row per phase: count, total, mean, max and a histogram
+     *         of durations, all as numbers.
+     */
+    TabularData getPhases();
+
+    /** @return Time spent in each phase for each job, with a row per job and phase, as for {@link #getPhases()}. */
+    TabularData getJobPhases();
+
+    /** @return Time spent in each phase across all jobs, in a human-readable form. */
+    String getSummary();
+
+}
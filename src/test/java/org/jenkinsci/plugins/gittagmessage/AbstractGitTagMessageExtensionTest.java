@@ -23,7 +23,7 @@ public abstract class AbstractGitTagMessageExtensionTest<J extends Job<J, R> & P
 
     @Rule public final TemporaryFolder repoDir = new TemporaryFolder();
 
-    private GitClient repo;
+    protected GitClient repo;
 
     /**
      * @param refSpec The refspec to check out.
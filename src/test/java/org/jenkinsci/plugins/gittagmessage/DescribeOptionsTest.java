@@ -0,0 +1,41 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+import hudson.util.ArgumentListBuilder;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DescribeOptionsTest {
+
+    @Test
+    public void tagsShouldBeFilteredByMatchAndExcludePatterns() {
+        // Given options which include release tags, but exclude release candidates
+        DescribeOptions options = new DescribeOptions("v* release/*", "*-rc[0-9]", 0);
+
+        // Then only the matching tags should be allowed
+        assertTrue(options.isAllowed("v1.0"));
+        assertTrue(options.isAllowed("release/2.0"));
+        assertFalse(options.isAllowed("v1.1-rc1"));
+        assertFalse(options.isAllowed("build-123"));
+    }
+
+    @Test
+    public void emptyOptionsShouldAllowAllTags() {
+        assertTrue(DescribeOptions.NONE.isEmpty());
+        assertTrue(DescribeOptions.NONE.isAllowed("build-123"));
+        assertTrue(new DescribeOptions(" ", null, 0).isEmpty());
+    }
+
+    @Test
+    public void optionsShouldBePassedToGitDescribe() {
+        ArgumentListBuilder args = new ArgumentListBuilder();
+        new DescribeOptions("v*", "nightly-* build-*", 5).addTo(args);
+        assertEquals(Arrays.asList("--match", "v*", "--exclude", "nightly-*", "--exclude", "build-*", "--candidates=5"),
+                args.toList());
+    }
+
+}
@@ -0,0 +1,55 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class GitTagBuildIndexTest {
+
+    @Rule public final JenkinsRule jenkins = new JenkinsRule();
+
+    @Test
+    public void buildsShouldBeFoundByTag() throws Exception {
+        // Given a job whose builds built two tags
+        FreeStyleProject job = jenkins.createFreeStyleProject("p");
+        FreeStyleBuild first = jenkins.buildAndAssertSuccess(job);
+        FreeStyleBuild second = jenkins.buildAndAssertSuccess(job);
+        FreeStyleBuild third = jenkins.buildAndAssertSuccess(job);
+        GitTagBuildIndex index = GitTagBuildIndex.forJob(job);
+        index.add("release-1.0", first.getNumber(), "abc123");
+        index.add("release-1.0", second.getNumber(), "abc123");
+        index.add("release-2.0", third.getNumber(), null);
+
+        // Then the builds of each tag should be found, newest first
+        assertEquals(Arrays.asList(2, 1), index.getBuildNumbers("release-1.0"));
+        assertEquals("abc123", index.getCommit("release-1.0", 1));
+        assertNull(index.getCommit("release-2.0", 3));
+        assertEquals(Arrays.asList("release-1.0", "release-2.0"), index.getTagNames());
+
+        // And the latest build should be reachable via the job's URL
+        assertEquals(second.getUrl(), jenkins.createWebClient().goTo("job/p/gitTags/release-1.0/")
+                .getUrl().getPath().substring(jenkins.contextPath.length() + 1));
+
+        // When a build is deleted, then it should be removed from the index
+        third.delete();
+        assertEquals(Collections.emptyList(), index.getBuildNumbers("release-2.0"));
+        assertEquals(Collections.singletonList("release-1.0"), index.getTagNames());
+
+        // And the change should have been persisted
+        File file = new File(job.getRootDir(), GitTagBuildIndex.FILE_NAME);
+        assertEquals("+\t1\tabc123\trelease-1.0\n+\t2\tabc123\trelease-1.0\n+\t3\t-\trelease-2.0\n-\t3\n",
+                FileUtils.readFileToString(file, StandardCharsets.UTF_8));
+    }
+
+}
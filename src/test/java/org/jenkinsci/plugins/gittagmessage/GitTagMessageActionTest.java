@@ -0,0 +1,196 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+import hudson.EnvVars;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GitTagMessageActionTest {
+
+    @Rule public final JenkinsRule jenkins = new JenkinsRule();
+
+    @Test
+    public void tagMessageShouldBeStoredOutsideBuildRecord() throws Exception {
+        // Given a build with a tag message attached
+        FreeStyleProject job = jenkins.createFreeStyleProject();
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(job);
+        build.addAction(new GitTagMessageAction("release-1.0", "Release notes"));
+        build.save();
+
+        // Then the message should be stored in a separate file, rather than the build record
+        File buildXml = new File(build.getRootDir(), "build.xml");
+        assertFalse(FileUtils.readFileToString(buildXml, StandardCharsets.UTF_8).contains("Release notes"));
+        File messageFile = new File(build.getRootDir(), GitTagMessageAction.MESSAGE_FILE_NAME);
+        assertEquals("Release notes", FileUtils.readFileToString(messageFile, StandardCharsets.UTF_8));
+
+        // And it should be loaded on demand after the build is reloaded
+        build.reload();
+        GitTagMessageAction action = build.getAction(GitTagMessageAction.class);
+        assertEquals("release-1.0", action.getTagName());
+        assertEquals("Release notes", action.getTagMessage());
+    }
+
+    @Test
+    public void buildWithInlineMessageShouldNotRewriteMessageFileOnEachLoad() throws Exception {
+        // Given a build recorded by an older version of this plugin, with the message inline, which has been loaded
+        FreeStyleProject job = jenkins.createFreeStyleProject();
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(job);
+        build.addAction(new GitTagMessageAction("release-1.0", "Release notes"));
+        build.save();
+        File buildXml = new File(build.getRootDir(), "build.xml");
+        String record = FileUtils.readFileToString(buildXml, StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(buildXml, record.replace("<messageInFile>true</messageInFile>",
+                "<tagMessage>Release notes</tagMessage>"), StandardCharsets.UTF_8);
+        build.reload();
+        File messageFile = new File(build.getRootDir(), GitTagMessageAction.MESSAGE_FILE_NAME);
+        assertTrue(messageFile.setLastModified(1000));
+
+        // When it is loaded again, without having been saved
+        build.reload();
+
+        // Then the message file should not have been written again
+        assertEquals(1000, messageFile.lastModified());
+        assertEquals("Release notes", build.getAction(GitTagMessageAction.class).getTagMessage());
+    }
+
+    @Test
+    public void messagesOfAllTagsShouldBeStoredOutsideBuildRecord() throws Exception {
+        // Given a build with a tag attached, along with all the tags on its commit
+        FreeStyleProject job = jenkins.createFreeStyleProject();
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(job);
+        GitTagMessageAction action = new GitTagMessageAction("release-1.0", "Release notes");
+        action.setDetails(new TagDetails("abc123", null, null, 0, Arrays.asList("release-1.0", "v1.0"),
+                Arrays.asList(new TagEntry("release-1.0", "Release notes", null, null, 0, true),
+                        new TagEntry("v1.0", "Commit message", null, null, 0, false))));
+        build.addAction(action);
+        build.save();
+
+        // Then the messages should be stored in a separate file, rather than the build record
+        File buildXml = new File(build.getRootDir(), "build.xml");
+        String record = FileUtils.readFileToString(buildXml, StandardCharsets.UTF_8);
+        assertFalse(record.contains("Release notes"));
+        assertFalse(record.contains("Commit message"));
+
+        // And they should be loaded on demand after the build is reloaded
+        build.reload();
+        List<TagEntry> tags = build.getAction(GitTagMessageAction.class).getTags();
+        assertEquals("Release notes", tags.get(0).getMessage());
+        assertEquals("v1.0", tags.get(1).getName());
+        assertEquals("Commit message", tags.get(1).getMessage());
+    }
+
+    @Test
+    public void tagsOfSeveralCheckoutsShouldBeExportedSeparately() throws Exception {
+        // Given a build with tags from two checkouts, each with its own suffix
+        FreeStyleProject job = jenkins.createFreeStyleProject();
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(job);
+        GitTagMessageAction app = new GitTagMessageAction("app-1.0", "App release");
+        app.setVariableSuffix("APP");
+        GitTagMessageAction lib = new GitTagMessageAction("lib-2.0", "Lib release");
+        lib.setVariableSuffix("LIB");
+        build.addAction(app);
+        build.addAction(lib);
+
+        // Then each tag should be exported under its own names, with the plain names used by the last checkout
+        EnvVars env = new EnvVars();
+        app.buildEnvVars(build, env);
+        lib.buildEnvVars(build, env);
+        assertEquals("app-1.0", env.get("GIT_TAG_NAME_APP"));
+        assertEquals("App release", env.get("GIT_TAG_MESSAGE_APP"));
+        assertEquals("lib-2.0", env.get("GIT_TAG_NAME_LIB"));
+        assertEquals("Lib release", env.get("GIT_TAG_MESSAGE_LIB"));
+        assertEquals("lib-2.0", env.get("GIT_TAG_NAME"));
+
+        // And the messages should not overwrite each other when stored
+        build.save();
+        build.reload();
+        List<GitTagMessageAction> actions = build.getActions(GitTagMessageAction.class);
+        assertEquals("App release", actions.get(0).getTagMessage());
+        assertEquals("Lib release", actions.get(1).getTagMessage());
+    }
+
+    @Test
+    public void tagsAddedConcurrentlyShouldNotShareMessageFile() throws Exception {
+        // Given a build
+        FreeStyleProject job = jenkins.createFreeStyleProject();
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(job);
+
+        // When tags from several checkouts are added at the same time
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                String tagName = "tag-" + i;
+                String message = "Release " + i;
+                futures.add(executor.submit(() -> build.addAction(new GitTagMessageAction(tagName, message))));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // Then each message should have been stored in its own file
+        build.save();
+        build.reload();
+        for (GitTagMessageAction action : build.getActions(GitTagMessageAction.class)) {
+            assertEquals(action.getTagName().replace("tag-", "Release "), action.getTagMessage());
+        }
+    }
+
+    @Test
+    public void variableSuffixShouldBeDerivedFromRepositoryName() {
+        assertEquals("MY_APP", GitTagMessageExtension.toVariableSuffix(
+                GitTagMessageExtension.getRepositoryName("https://example.com/org/my-app.git/")));
+        assertEquals("LIB", GitTagMessageExtension.toVariableSuffix(
+                GitTagMessageExtension.getRepositoryName("git@example.com:lib.git")));
+        assertEquals("SUB_DIR", GitTagMessageExtension.toVariableSuffix("sub/dir"));
+        assertNull(GitTagMessageExtension.toVariableSuffix("../"));
+    }
+
+    @Test
+    public void longTagMessageShouldBeTruncatedWithinLimit() {
+        // Given a 213 byte message, including multi-byte characters
+        StringBuilder message = new StringBuilder("Caf\u00e9 release");
+        for (int i = 0; i < 200; i++) {
+            message.append(' ');
+        }
+
+        // When it is truncated partway through the multi-byte character, allowing for the 122 byte note
+        String truncated = GitTagMessageAction.truncate(message.toString(), 126);
+
+        // Then the character should not be split, and a note with the full size should be appended within the limit
+        assertTrue(truncated.startsWith("Caf\n[Truncated; the full message is 213 bytes, with SHA-256 "));
+        assertTrue(truncated.getBytes(StandardCharsets.UTF_8).length <= 126);
+    }
+
+    @Test
+    public void tagMessageShouldBeCutWithinLimitIfNoteDoesNotFit() {
+        assertEquals("Caf", GitTagMessageAction.truncate("Caf\u00e9 release", 4));
+    }
+
+    @Test
+    public void shortTagMessageShouldNotBeTruncated() {
+        assertEquals("Release", GitTagMessageAction.truncate("Release", 7));
+        assertEquals("Release", GitTagMessageAction.truncate("Release", 0));
+    }
+
+}
@@ -0,0 +1,13 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+/** Runs the same tests as {@link GitTagMessageExtensionTest}, but resolving the tag info on the agent. */
+public class GitTagMessageExtensionAgentTest extends GitTagMessageExtensionTest {
+
+    @Override
+    protected GitTagMessageExtension createExtension() {
+        GitTagMessageExtension extension = super.createExtension();
+        extension.setResolveOnAgent(true);
+        return extension;
+    }
+
+}
@@ -0,0 +1,13 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+/** Runs the same tests as {@link GitTagMessageExtensionTest}, but resolving the tag info in-process with JGit. */
+public class GitTagMessageExtensionJGitTest extends GitTagMessageExtensionTest {
+
+    @Override
+    protected GitTagMessageExtension createExtension() {
+        GitTagMessageExtension extension = super.createExtension();
+        extension.setResolveInProcess(true);
+        return extension;
+    }
+
+}
@@ -1,25 +1,158 @@
 package org.jenkinsci.plugins.gittagmessage;
 
 import hudson.Functions;
+import hudson.Launcher;
 import hudson.Util;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
 import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
 import hudson.plugins.git.BranchSpec;
 import hudson.plugins.git.GitSCM;
+import hudson.plugins.git.GitTool;
 import hudson.plugins.git.SubmoduleConfig;
 import hudson.plugins.git.UserRemoteConfig;
 import hudson.plugins.git.extensions.GitSCMExtension;
+import hudson.plugins.git.extensions.impl.RelativeTargetDirectory;
 import hudson.tasks.BatchFile;
 import hudson.tasks.Builder;
 import hudson.tasks.Shell;
+import org.jenkinsci.plugins.gitclient.Git;
+import org.jenkinsci.plugins.gitclient.GitClient;
+import org.jenkinsci.plugins.gitclient.JGitTool;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.TestBuilder;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
 import static org.jenkinsci.plugins.gittagmessage.GitTagMessageAction.ENV_VAR_NAME_MESSAGE;
 import static org.jenkinsci.plugins.gittagmessage.GitTagMessageAction.ENV_VAR_NAME_TAG;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 public class GitTagMessageExtensionTest extends AbstractGitTagMessageExtensionTest<FreeStyleProject, FreeStyleBuild> {
 
+    @Rule public final TemporaryFolder secondRepoDir = new TemporaryFolder();
+
+    @Test
+    public void requestedTagShouldBeExportedEvenIfExcludedByPatterns() throws Exception {
+        // Given a commit with multiple tags pointing to it
+        repo.commit("commit 1");
+        repo.tag("alpha/1", "Alpha #1");
+        repo.tag("beta/1", "Beta #1");
+
+        // When a beta/* tag is built by a job whose patterns only match alpha/* tags
+        FreeStyleProject job = configureGitTagMessageJob("+refs/tags/beta/*:refs/remotes/origin/tags/beta/*",
+                "*/tags/beta/*", false);
+        ((GitSCM) job.getScm()).getExtensions().get(GitTagMessageExtension.class).setTagMatchPatterns("alpha/*");
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(job);
+
+        // Then the tag which was built should still be exported
+        assertBuildEnvironment(build, "beta/1", "Beta #1");
+    }
+
+    @Test
+    public void lookupOnAgentWithTagPatternsShouldExportMatchingTag() throws Exception {
+        // Given a commit with multiple tags pointing to it
+        repo.commit("commit 1");
+        repo.tag("release-1.0", "This is the first release.");
+        repo.tag("other-1.0", "This is another tag.");
+
+        // When a build is executed which runs git itself on the agent, with tag patterns
+        FreeStyleProject job = configureGitTagMessageJob("", "**", false);
+        GitTagMessageExtension extension = ((GitSCM) job.getScm()).getExtensions().get(GitTagMessageExtension.class);
+        extension.setResolveOnAgent(true);
+        extension.setTagMatchPatterns("release-*");
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(job);
+
+        // Then the matching tag should have been exported
+        assertBuildEnvironment(build, "release-1.0", "This is the first release.");
+    }
+
+    @Test
+    public void jobUsingJGitWithTagPatternsShouldExportMatchingTag() throws Exception {
+        // Given a commit with multiple tags pointing to it, and JGit configured as a git tool
+        repo.commit("commit 1");
+        repo.tag("release-1.0", "This is the first release.");
+        repo.tag("other-1.0", "This is another tag.");
+        jenkins.jenkins.getDescriptorByType(GitTool.DescriptorImpl.class)
+                .setInstallations(new JGitTool(Collections.emptyList()));
+
+        // When a build is executed by a job which uses JGit, with tag patterns
+        FreeStyleProject job = configureGitTagMessageJob("", "**", false);
+        GitSCM scm = (GitSCM) job.getScm();
+        scm.getExtensions().get(GitTagMessageExtension.class).setTagMatchPatterns("release-*");
+        job.setScm(new GitSCM(scm.getUserRemoteConfigs(), scm.getBranches(), false,
+                Collections.<SubmoduleConfig>emptyList(), null, JGitTool.MAGIC_EXENAME, scm.getExtensions()));
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(job);
+
+        // Then the matching tag should have been exported, without trying to run JGit as a git executable
+        assertBuildEnvironment(build, "release-1.0", "This is the first release.");
+    }
+
+    @Test
+    public void checkoutDuringBuildShouldExportItsTagUnderNamespacedVariables() throws Exception {
+        // Given two git repos which have been tagged
+        repo.commit("commit 1");
+        repo.tag("release-1.0", "This is the first release.");
+        GitClient secondRepo = Git.with(jenkins.createTaskListener(), null).in(secondRepoDir.getRoot()).getClient();
+        secondRepo.init();
+        secondRepo.commit("commit 1");
+        secondRepo.tag("other-2.0", "This is another release.");
+
+        // When a build is executed which checks out the second repo in a build step, after the main checkout
+        FreeStyleProject job = configureGitTagMessageJob("", "**", false);
+        ((GitSCM) job.getScm()).getExtensions().get(GitTagMessageExtension.class).setNamespaceVariables(true);
+        GitTagMessageExtension secondExtension = createExtension();
+        secondExtension.setNamespaceVariables(true);
+        UserRemoteConfig remote =
+                new UserRemoteConfig(secondRepoDir.getRoot().getAbsolutePath(), "origin", "", null);
+        GitSCM secondScm = new GitSCM(Collections.singletonList(remote),
+                Collections.singletonList(new BranchSpec("**")), false, Collections.<SubmoduleConfig>emptyList(),
+                null, null, Arrays.<GitSCMExtension>asList(new RelativeTargetDirectory("second"), secondExtension));
+        job.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+                    throws InterruptedException, IOException {
+                secondScm.checkout(build, launcher, build.getWorkspace(), listener, null, null);
+                return true;
+            }
+        });
+        job.getBuildersList().add(createEnvEchoBuilder("second",
+                GitTagMessageAction.getVariableName(ENV_VAR_NAME_TAG, "SECOND")));
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(job);
+
+        // Then the tags of both checkouts should have been exported
+        jenkins.assertLogContains("second='other-2.0'", build);
+        Set<String> tagNames = new HashSet<>();
+        for (GitTagMessageAction action : build.getActions(GitTagMessageAction.class)) {
+            tagNames.add(action.getTagName());
+        }
+        assertEquals(new HashSet<>(Arrays.asList("release-1.0", "other-2.0")), tagNames);
+    }
+
+    @Test
+    public void nearestTagIndexShouldNotBeWrittenUnlessEnabled() throws Exception {
+        // Given a commit after a tagged commit
+        repo.commit("commit 1");
+        repo.tag("release-1.0", "This is the first release.");
+        repo.commit("commit 2");
+
+        // When a build using the most recent tag is executed, without the nearest tag index enabled
+        FreeStyleProject job = configureGitTagMessageJob("", "**", true);
+        FreeStyleBuild build = jenkins.buildAndAssertSuccess(job);
+
+        // Then the tag should have been found, without writing an index into the workspace's repository
+        assertBuildEnvironment(build, "release-1.0", "This is the first release.");
+        assertFalse(build.getWorkspace().child(".git").child(NearestTagIndex.FILE_NAME).exists());
+    }
+
     /**
      * @param refSpec The refspec to check out.
      * @param branchSpec The branch spec to build.
@@ -27,7 +160,7 @@ public class GitTagMessageExtensionTest extends AbstractGitTagMessageExtensionTe
      * @return A job configured with the test Git repo, given settings, and the Git Tag Message extension.
      */
     protected FreeStyleProject configureGitTagMessageJob(String refSpec, String branchSpec, boolean useMostRecentTag) throws Exception {
-        GitTagMessageExtension extension = new GitTagMessageExtension();
+        GitTagMessageExtension extension = createExtension();
         extension.setUseMostRecentTag(useMostRecentTag);
         UserRemoteConfig remote = new UserRemoteConfig(repoDir.getRoot().getAbsolutePath(), "origin", refSpec, null);
         GitSCM scm = new GitSCM(
@@ -44,6 +177,11 @@ public class GitTagMessageExtensionTest extends AbstractGitTagMessageExtensionTe
         return job;
     }
 
+    /** @return The extension instance to configure for the job, with any settings specific to this test case. */
+    protected GitTagMessageExtension createExtension() {
+        return new GitTagMessageExtension();
+    }
+
     /** Asserts that the given build exported tag information, or not, if {@code null}. */
     protected void assertBuildEnvironment(FreeStyleBuild build, String expectedName, String expectedMessage)
             throws Exception {
@@ -52,7 +190,7 @@ public class GitTagMessageExtensionTest extends AbstractGitTagMessageExtensionTe
         jenkins.assertLogContains(String.format("msg='%s'", Util.fixNull(expectedMessage)), build);
     }
 
-    private static Builder createEnvEchoBuilder(String key, String envVarName) {
+    protected static Builder createEnvEchoBuilder(String key, String envVarName) {
         if (Functions.isWindows()) {
             return new BatchFile(String.format("echo %s='%%%s%%'", key, envVarName));
         }
@@ -0,0 +1,311 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+import hudson.model.FreeStyleProject;
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.plugins.git.BranchSpec;
+import hudson.plugins.git.GitException;
+import hudson.plugins.git.GitSCM;
+import hudson.plugins.git.SubmoduleConfig;
+import hudson.plugins.git.UserRemoteConfig;
+import hudson.plugins.git.extensions.GitSCMExtension;
+import hudson.plugins.git.extensions.GitSCMExtensionDescriptor;
+import hudson.slaves.DumbSlave;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.RetentionStrategy;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.plugins.gitclient.GitClient;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Runs many freestyle and Pipeline builds at the same time, against a few shared repositories with many tags, and
+ * writes the cost of the extension to {@code target/scale-report.json}, so that it can be compared across versions:
+ * <ul>
+ *     <li>the time each build spent in {@link GitTagMessageExtension#onCheckoutCompleted}</li>
+ *     <li>the number of builds completed per second</li>
+ *     <li>how much the controller heap grew, and how large the actions stored with each build are</li>
+ *     <li>the number of {@link GitClient} calls made by the extension, each of which is a remoting call, as the
+ *         builds run on an agent</li>
+ * </ul>
+ * <p>
+ * This only runs via {@code mvn test -P benchmark}. The load can be overridden with system properties, e.g.
+ * {@code -Dscale.builds=100 -Dscale.repos=4 -Dscale.commits=20000 -Dscale.tags=5000}.
+ */
+public class GitTagMessageScaleTest {
+
+    /** Number of builds of each type to run at the same time; each is of a separate job. */
+    private static final int BUILDS = Integer.getInteger("scale.builds", 20);
+
+    /** Number of repositories that the jobs are spread across. */
+    private static final int REPOS = Integer.getInteger("scale.repos", 2);
+
+    /** Number of commits in each repository's (linear) history. */
+    private static final int COMMITS = Integer.getInteger("scale.commits", 5000);
+
+    /** Number of annotated tags in each repository, spread evenly through its history. */
+    private static final int TAGS = Integer.getInteger("scale.tags", 1000);
+
+    /** Number of commits between HEAD and the nearest tag, so that each lookup has to search history. */
+    private static final int HEAD_DISTANCE = Integer.getInteger("scale.headDistance", 10);
+
+    private static final String LABEL = "scale";
+
+    private static final File REPORT = new File("target/scale-report.json");
+
+    /** Time spent in {@code onCheckoutCompleted}, keyed by build. */
+    private static final Map<String, Long> LATENCY_NANOS = new ConcurrentHashMap<>();
+
+    /** Number of calls made via the {@link GitClient} given to the extension, keyed by build. */
+    private static final Map<String, AtomicInteger> GIT_CALLS = new ConcurrentHashMap<>();
+
+    @Rule public final JenkinsRule jenkins = new JenkinsRule();
+
+    @Rule public final TemporaryFolder tmp = new TemporaryFolder();
+
+    /** Checked before the {@link JenkinsRule} starts, so that Jenkins isn't started just to skip this test. */
+    @BeforeClass
+    public static void onlyWithBenchmarkProfile() {
+        Assume.assumeTrue("Scale tests are only run with the 'benchmark' profile", Boolean.getBoolean("benchmark"));
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        // Run every build on a single agent, at the same time, so that calls to the workspace go via remoting
+        DumbSlave agent = new DumbSlave("scale-agent", "", tmp.newFolder("agent").getAbsolutePath(),
+                Integer.toString(BUILDS), Node.Mode.NORMAL, LABEL, jenkins.createComputerLauncher(null),
+                RetentionStrategy.NOOP, Collections.<NodeProperty<?>>emptyList());
+        jenkins.jenkins.addNode(agent);
+        jenkins.waitOnline(agent);
+    }
+
+    @Test
+    public void concurrentBuilds() throws Exception {
+        List<String> repos = new ArrayList<>();
+        for (int i = 0; i < REPOS; i++) {
+            File dir = tmp.newFolder("repo-" + i);
+            SyntheticRepository.create(dir, COMMITS, TAGS, HEAD_DISTANCE, true, "Release notes\n");
+            repos.add(dir.getAbsolutePath());
+        }
+
+        JSONObject report = new JSONObject();
+        report.put("jenkinsVersion", jenkins.jenkins.getVersion().toString());
+        report.put("pluginVersion", jenkins.jenkins.getPluginManager().getPlugin("git-tag-message").getVersion());
+        report.put("builds", BUILDS);
+        report.put("repos", REPOS);
+        report.put("commits", COMMITS);
+        report.put("tags", TAGS);
+        report.put("headDistance", HEAD_DISTANCE);
+
+        List<FreeStyleProject> freestyleJobs = new ArrayList<>();
+        for (int i = 0; i < BUILDS; i++) {
+            freestyleJobs.add(createFreestyleJob("freestyle-" + i, repos.get(i % REPOS)));
+        }
+        report.put("freestyle", runBuilds(freestyleJobs));
+
+        // Start the Pipeline builds with the same, empty, cache as the freestyle builds, so that they're comparable
+        TagInfoCache.get().clear();
+        List<WorkflowJob> pipelineJobs = new ArrayList<>();
+        for (int i = 0; i < BUILDS; i++) {
+            pipelineJobs.add(createPipelineJob("pipeline-" + i, repos.get(i % REPOS)));
+        }
+        report.put("pipeline", runBuilds(pipelineJobs));
+
+        FileUtils.writeStringToFile(REPORT, report.toString(2), StandardCharsets.UTF_8);
+        System.out.println(report.toString(2));
+    }
+
+    /** Builds each of the given jobs once, all at the same time, and returns what it cost. */
+    private JSONObject runBuilds(List<? extends Queue.Task> jobs) throws Exception {
+        TagInfoCache cache = TagInfoCache.get();
+        long hitsBefore = cache.getHitCount();
+        long coalescedBefore = cache.getCoalescedCount();
+        long heapBefore = usedHeapAfterGc();
+
+        long start = System.nanoTime();
+        List<Future<Queue.Executable>> futures = new ArrayList<>();
+        for (Queue.Task job : jobs) {
+            futures.add(jenkins.jenkins.getQueue().schedule2(job, 0).getItem().getFuture());
+        }
+        List<Run<?, ?>> builds = new ArrayList<>();
+        for (Future<Queue.Executable> future : futures) {
+            builds.add(jenkins.assertBuildStatusSuccess((Run<?, ?>) future.get()));
+        }
+        long wallNanos = System.nanoTime() - start;
+
+        long heapAfter = usedHeapAfterGc();
+        List<Long> latencies = new ArrayList<>();
+        long gitCalls = 0;
+        int maxGitCalls = 0;
+        long actionBytes = 0;
+        for (Run<?, ?> build : builds) {
+            GitTagMessageAction action = build.getAction(GitTagMessageAction.class);
+            assertNotNull(String.format("%s did not record a tag", build), action);
+            assertNotNull(String.format("%s did not find a tag", build), action.getTagName());
+            actionBytes += Run.XSTREAM2.toXML(action).getBytes(StandardCharsets.UTF_8).length;
+
+            Long nanos = LATENCY_NANOS.get(build.getExternalizableId());
+            assertNotNull(String.format("%s did not run the extension", build), nanos);
+            latencies.add(nanos);
+            int calls = GIT_CALLS.get(build.getExternalizableId()).get();
+            gitCalls += calls;
+            maxGitCalls = Math.max(maxGitCalls, calls);
+        }
+        assertEquals(jobs.size(), latencies.size());
+        Collections.sort(latencies);
+
+        JSONObject result = new JSONObject();
+        result.put("builds", builds.size());
+        result.put("wallClockMillis", TimeUnit.NANOSECONDS.toMillis(wallNanos));
+        result.put("buildsPerSecond", builds.size() * 1e9 / wallNanos);
+
+        JSONObject latency = new JSONObject();
+        long total = 0;
+        for (long nanos : latencies) {
+            total += nanos;
+        }
+        latency.put("meanMillis", toMillis(total / latencies.size()));
+        latency.put("p50Millis", toMillis(percentile(latencies, 50)));
+        latency.put("p95Millis", toMillis(percentile(latencies, 95)));
+        latency.put("maxMillis", toMillis(latencies.get(latencies.size() - 1)));
+        result.put("onCheckoutCompleted", latency);
+
+        JSONObject remoting = new JSONObject();
+        remoting.put("gitClientCalls", gitCalls);
+        remoting.put("meanPerBuild", (double) gitCalls / builds.size());
+        remoting.put("maxPerBuild", maxGitCalls);
+        result.put("remoting", remoting);
+
+        JSONObject heap = new JSONObject();
+        heap.put("beforeBytes", heapBefore);
+        heap.put("afterBytes", heapAfter);
+        heap.put("growthBytes", heapAfter - heapBefore);
+        heap.put("growthBytesPerBuild", (heapAfter - heapBefore) / builds.size());
+        heap.put("actionXmlBytesPerBuild", actionBytes / builds.size());
+        result.put("heap", heap);
+
+        JSONObject cacheStats = new JSONObject();
+        cacheStats.put("hits", cache.getHitCount() - hitsBefore);
+        cacheStats.put("coalesced", cache.getCoalescedCount() - coalescedBefore);
+        result.put("cache", cacheStats);
+        return result;
+    }
+
+    private FreeStyleProject createFreestyleJob(String name, String repo) throws IOException {
+        GitSCM scm = new GitSCM(
+                Collections.singletonList(new UserRemoteConfig(repo, "origin", "", null)),
+                Collections.singletonList(new BranchSpec("master")),
+                false, Collections.<SubmoduleConfig>emptyList(),
+                null, null,
+                Collections.<GitSCMExtension>singletonList(new TimedGitTagMessageExtension()));
+        FreeStyleProject job = jenkins.createFreeStyleProject(name);
+        job.setAssignedLabel(jenkins.jenkins.getLabel(LABEL));
+        job.setScm(scm);
+        return job;
+    }
+
+    private WorkflowJob createPipelineJob(String name, String repo) throws IOException {
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, name);
+        job.setDefinition(new CpsFlowDefinition(String.format(""
+                + "node('%s') {\n"
+                + "  checkout([$class: 'GitSCM', "
+                + "userRemoteConfigs: [[url: '%s']], "
+                + "branches: [[name: 'master']], "
+                + "extensions: [[$class: 'TimedGitTagMessageExtension', useMostRecentTag: true]]])\n"
+                + "}", LABEL, repo), true));
+        return job;
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static long percentile(List<Long> sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, index));
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /**
+     * Records how long the extension takes for each build, and how many calls it makes via the {@link GitClient}.
+     */
+    public static class TimedGitTagMessageExtension extends GitTagMessageExtension {
+
+        @DataBoundConstructor
+        public TimedGitTagMessageExtension() {
+            setUseMostRecentTag(true);
+        }
+
+        @Override
+        public void onCheckoutCompleted(GitSCM scm, Run<?, ?> build, GitClient git, TaskListener listener)
+                throws IOException, InterruptedException, GitException {
+            String id = build.getExternalizableId();
+            AtomicInteger calls = new AtomicInteger();
+            GIT_CALLS.put(id, calls);
+            GitClient countingGit = (GitClient) Proxy.newProxyInstance(GitClient.class.getClassLoader(),
+                    new Class<?>[] { GitClient.class }, (proxy, method, args) -> {
+                        calls.incrementAndGet();
+                        try {
+                            return method.invoke(git, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    });
+
+            long start = System.nanoTime();
+            try {
+                super.onCheckoutCompleted(scm, build, countingGit, listener);
+            } finally {
+                LATENCY_NANOS.put(id, System.nanoTime() - start);
+            }
+        }
+
+        @TestExtension
+        public static class DescriptorImpl extends GitSCMExtensionDescriptor {
+            @Override
+            public String getDisplayName() {
+                return "Timed Git tag message";
+            }
+        }
+    }
+
+}
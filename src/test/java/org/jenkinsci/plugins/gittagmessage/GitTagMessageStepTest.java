@@ -0,0 +1,94 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+import org.jenkinsci.plugins.gitclient.Git;
+import org.jenkinsci.plugins.gitclient.GitClient;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.junit.Assert.assertNotNull;
+
+public class GitTagMessageStepTest {
+
+    @Rule public final JenkinsRule jenkins = new JenkinsRule();
+
+    @Rule public final TemporaryFolder repoDir = new TemporaryFolder();
+
+    private GitClient repo;
+
+    @Before
+    public void setUp() throws Exception {
+        repo = Git.with(jenkins.createTaskListener(), null).in(repoDir.getRoot()).getClient();
+        repo.init();
+    }
+
+    @Test
+    public void stepShouldReturnTagRecordedAtCheckout() throws Exception {
+        // Given a commit with an annotated and a lightweight tag
+        repo.commit("commit 1");
+        repo.tag("release-1.0", "This is the first release.");
+        repo.tag("v1.0", null);
+
+        // When a Pipeline checks it out with the extension, and asks for the tag
+        WorkflowRun run = runPipeline("extensions: [[$class: 'GitTagMessageExtension', resolveInProcess: true]]");
+
+        // Then the recorded tag info should be returned
+        jenkins.assertLogContains("name='release-1.0'", run);
+        jenkins.assertLogContains("message='This is the first release.'", run);
+        jenkins.assertLogContains("distance='0'", run);
+        jenkins.assertLogContains("tags='[release-1.0, v1.0]'", run);
+        GitTagMessageAction action = run.getAction(GitTagMessageAction.class);
+        assertNotNull(action.getDetails());
+    }
+
+    @Test
+    public void stepShouldLookUpTagIfNothingWasRecorded() throws Exception {
+        // Given a commit with a tag in its history
+        repo.commit("commit 1");
+        repo.tag("release-1.0", "This is the first release.");
+        repo.commit("commit 2");
+
+        // When a Pipeline checks it out without the extension, and asks for the nearest tag
+        WorkflowRun run = runPipeline("extensions: []", "useMostRecentTag: true");
+
+        // Then the tag info should be looked up from the workspace
+        jenkins.assertLogContains("name='release-1.0'", run);
+        jenkins.assertLogContains("message='This is the first release.'", run);
+        jenkins.assertLogContains("distance='1'", run);
+        jenkins.assertLogContains("tags='[]'", run);
+    }
+
+    @Test
+    public void stepShouldLookUpTagInCheckoutDirectory() throws Exception {
+        // Given a commit with a tag in its history
+        repo.commit("commit 1");
+        repo.tag("release-1.0", "This is the first release.");
+        repo.commit("commit 2");
+
+        // When a Pipeline checks it out into a subdirectory without the extension, and asks for that repo's tag
+        WorkflowRun run = runPipeline("extensions: [[$class: 'RelativeTargetDirectory', relativeTargetDir: 'sub']]",
+                "repository: 'sub'", "useMostRecentTag: true");
+
+        // Then the tag info should be looked up from the checkout directory
+        jenkins.assertLogContains("name='release-1.0'", run);
+        jenkins.assertLogContains("distance='1'", run);
+    }
+
+    private WorkflowRun runPipeline(String extensions, String... stepArgs) throws Exception {
+        WorkflowJob job = jenkins.createProject(WorkflowJob.class, "j");
+        job.setDefinition(new CpsFlowDefinition(""
+                + "node() {\n"
+                + "  checkout([$class: 'GitSCM', branches: [[name: '**']], "
+                +     "userRemoteConfigs: [[url: '" + repoDir.getRoot().getAbsolutePath() + "']], " + extensions + "])\n"
+                + "  def tag = gitTagMessage(" + String.join(", ", stepArgs) + ")\n"
+                + "  echo \"name='${tag.name}' message='${tag.message}' distance='${tag.distance}' tags='${tag.tags}'\"\n"
+                + "}", true));
+        return jenkins.buildAndAssertSuccess(job);
+    }
+
+}
@@ -0,0 +1,103 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+import hudson.EnvVars;
+import hudson.model.TaskListener;
+import hudson.util.StreamTaskListener;
+import org.jenkinsci.plugins.gitclient.Git;
+import org.jenkinsci.plugins.gitclient.GitClient;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class NearestTagIndexTest {
+
+    @Rule public final TemporaryFolder tmp = new TemporaryFolder();
+
+    private final TaskListener listener = StreamTaskListener.fromStdout();
+
+    private GitClient git;
+
+    /** Makes commits in the same repository, but dated long enough ago that they predate any new tag. */
+    private GitClient oldGit;
+
+    @Before
+    public void setUp() throws Exception {
+        File dir = tmp.newFolder();
+        git = Git.with(listener, null).in(dir).getClient();
+        git.init();
+        EnvVars oldDates = new EnvVars("GIT_AUTHOR_DATE", "2000-01-01T00:00:00Z",
+                "GIT_COMMITTER_DATE", "2000-01-01T00:00:00Z");
+        oldGit = Git.with(listener, oldDates).in(dir).getClient();
+    }
+
+    @Test
+    public void lookupShouldFailWithoutIndex() throws Exception {
+        // Given a repo with a tagged commit, but no index
+        git.commit("commit 1");
+        git.tag("release-1.0", "First release");
+
+        // When the commit is looked up, then the index should not be able to answer
+        assertNull(NearestTagIndex.lookup(git, head()));
+    }
+
+    @Test
+    public void lookupShouldWalkBackToTaggedCommit() throws Exception {
+        // Given an index, and a new commit after a tagged commit
+        git.commit("commit 1");
+        git.tag("release-1.0", "First release");
+        NearestTagIndex.record(git, head(), "release-1.0");
+        git.commit("commit 2");
+
+        // When the new commit is looked up, then the tag should be found
+        assertEquals("release-1.0", NearestTagIndex.lookup(git, head()));
+    }
+
+    @Test
+    public void removingTagShouldOnlyDropEntriesForThatTag() throws Exception {
+        // Given an index with commits whose nearest tags are different
+        oldGit.commit("commit 1");
+        oldGit.tag("release-1.0", "First release");
+        String first = head();
+        oldGit.commit("commit 2");
+        oldGit.tag("release-2.0", "Second release");
+        String second = head();
+        NearestTagIndex.record(git, first, "recorded-1.0");
+        NearestTagIndex.record(git, second, "release-2.0");
+
+        // When one of those tags is deleted
+        git.deleteTag("release-2.0");
+
+        // Then only the entry for that tag should have been dropped
+        assertEquals("recorded-1.0", NearestTagIndex.lookup(git, first));
+        assertEquals("release-1.0", NearestTagIndex.lookup(git, second));
+    }
+
+    @Test
+    public void addingTagShouldOnlyDropEntriesForNewerCommits() throws Exception {
+        // Given an index with an old commit, and a new commit, neither of which has a tag
+        oldGit.commit("commit 1");
+        String old = head();
+        git.commit("commit 2");
+        String recent = head();
+        NearestTagIndex.record(git, old, NearestTagIndex.NO_TAG);
+        NearestTagIndex.record(git, recent, NearestTagIndex.NO_TAG);
+
+        // When the new commit is tagged
+        git.tag("release-1.0", "First release");
+
+        // Then the old commit's entry should be kept, but the new commit should have its tag
+        assertEquals(NearestTagIndex.NO_TAG, NearestTagIndex.lookup(git, old));
+        assertEquals("release-1.0", NearestTagIndex.lookup(git, recent));
+    }
+
+    private String head() throws Exception {
+        return git.revParse("HEAD").name();
+    }
+
+}
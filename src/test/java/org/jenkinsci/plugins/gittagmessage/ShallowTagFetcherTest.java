@@ -0,0 +1,140 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+import hudson.EnvVars;
+import hudson.Util;
+import hudson.model.TaskListener;
+import hudson.plugins.git.GitSCM;
+import hudson.util.StreamTaskListener;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.URIish;
+import org.jenkinsci.plugins.gitclient.Git;
+import org.jenkinsci.plugins.gitclient.GitClient;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ShallowTagFetcherTest {
+
+    @Rule public final TemporaryFolder tmp = new TemporaryFolder();
+
+    private final TaskListener listener = StreamTaskListener.fromStdout();
+
+    private final List<RefSpec> refSpecs =
+            Collections.singletonList(new RefSpec("+refs/heads/*:refs/remotes/origin/*"));
+
+    private File originDir;
+    private GitClient origin;
+    private GitClient clone;
+    private URIish uri;
+
+    @Before
+    public void setUp() throws Exception {
+        originDir = tmp.newFolder("origin");
+        origin = Git.with(listener, null).in(originDir).getClient();
+        origin.init();
+        clone = Git.with(listener, null).in(tmp.newFolder("clone")).getClient();
+        clone.init();
+        // Local paths don't support shallow fetches, so use a file URL
+        uri = new URIish("file://" + originDir.getAbsolutePath());
+    }
+
+    @Test
+    public void onlyTagsOnCommitShouldBeFetched() throws Exception {
+        // Given a shallow clone of a commit with a tag, where an older commit also has a tag
+        origin.commit("commit 1");
+        origin.tag("release-1.0", "First release");
+        origin.commit("commit 2");
+        origin.tag("release-2.0", "Second release");
+        String head = shallowClone();
+
+        // When the tags for the commit are fetched
+        ShallowTagFetcher.fetchTags(clone, uri, refSpecs, head, 0, DescribeOptions.NONE, listener);
+
+        // Then only its tag should have been fetched
+        assertEquals(Collections.singleton("release-2.0"), clone.getTagNames(null));
+        assertEquals("Second release", clone.getTagMessage("release-2.0"));
+    }
+
+    @Test
+    public void historyShouldOnlyBeDeepenedIfAllowed() throws Exception {
+        // Given a shallow clone of a commit without a tag, but with a tag further back in its history
+        origin.commit("commit 1");
+        origin.tag("release-1.0", "First release");
+        origin.commit("commit 2");
+        origin.commit("commit 3");
+        String head = shallowClone();
+
+        // When the tags are fetched without allowing the history to be deepened, then no tag should be fetched
+        ShallowTagFetcher.fetchTags(clone, uri, refSpecs, head, 0, DescribeOptions.NONE, listener);
+        assertTrue(clone.getTagNames(null).isEmpty());
+
+        // But when deepening is allowed, then the nearest tag should be fetched
+        ShallowTagFetcher.fetchTags(clone, uri, refSpecs, head, 100, DescribeOptions.NONE, listener);
+        assertEquals(Collections.singleton("release-1.0"), clone.getTagNames(null));
+    }
+
+    @Test
+    public void remoteShouldNotBeContactedIfTagsArePresent() throws Exception {
+        // Given a shallow clone which has fetched the tag of its commit, from a URL given by a variable
+        origin.commit("commit 1");
+        origin.tag("release-1.0", "First release");
+        String head = shallowClone();
+        GitSCM scm = new GitSCM("${ORIGIN_URL}");
+        EnvVars environment = new EnvVars("ORIGIN_URL", uri.toString());
+        ShallowTagFetcher.fetchTags(scm, clone, head, null, 0, DescribeOptions.NONE, true, environment, listener);
+        assertEquals(Collections.singleton("release-1.0"), clone.getTagNames(null));
+
+        // When the remote is no longer available, and the tags are fetched again
+        Util.deleteRecursive(originDir);
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        String fingerprint = ShallowTagFetcher.fetchTags(scm, clone, head, null, 0, DescribeOptions.NONE, true,
+                environment, new StreamTaskListener(log, StandardCharsets.UTF_8));
+
+        // Then the remote should not have been contacted, as the tag was already present
+        assertNotNull(fingerprint);
+        assertFalse(log.toString("UTF-8").contains("Could not fetch tags"));
+    }
+
+    @Test
+    public void fingerprintOfRequestedTagShouldChangeWhenTagIsRecreated() throws Exception {
+        // Given a full clone with a tag on its commit
+        origin.commit("commit 1");
+        origin.tag("release-1.0", "First release");
+        String head = origin.revParse("HEAD").name();
+        GitSCM scm = new GitSCM(uri.toString());
+        EnvVars environment = new EnvVars();
+        String fingerprint = ShallowTagFetcher.fetchTags(scm, origin, head, "release-1.0", 0, DescribeOptions.NONE,
+                false, environment, listener);
+
+        // When the tag is re-created on the same commit, with a different message
+        origin.deleteTag("release-1.0");
+        origin.tag("release-1.0", "First release, again");
+
+        // Then the fingerprint of the requested tag should have changed
+        String newFingerprint = ShallowTagFetcher.fetchTags(scm, origin, head, "release-1.0", 0,
+                DescribeOptions.NONE, false, environment, listener);
+        assertNotNull(newFingerprint);
+        assertFalse(newFingerprint.equals(fingerprint));
+    }
+
+    /** @return The SHA-1 of the commit that was cloned, with a depth of one, and without any tags. */
+    private String shallowClone() throws Exception {
+        clone.fetch_().from(uri, refSpecs).shallow(true).depth(1).tags(false).execute();
+        String head = origin.revParse("HEAD").name();
+        clone.checkout().ref(head).execute();
+        return head;
+    }
+
+}
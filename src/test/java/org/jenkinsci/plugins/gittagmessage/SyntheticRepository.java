@@ -0,0 +1,108 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TagBuilder;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * A repository with a linear history of empty commits, and tags spread evenly through it, for benchmarks and scale
+ * tests. The objects are written directly, so that even very large histories are quick to create.
+ */
+final class SyntheticRepository {
+
+    /** The commit time of the first commit; each later commit is a second after its parent. */
+    private static final long FIRST_COMMIT_MILLIS = 1500000000000L;
+
+    /** The SHA-1 of the last commit, which "master" points to. */
+    final String head;
+
+    /** The name of the tag nearest to {@link #head}, or {@code null} if there are no tags. */
+    final String nearestTag;
+
+    private SyntheticRepository(String head, String nearestTag) {
+        this.head = head;
+        this.nearestTag = nearestTag;
+    }
+
+    /**
+     * Creates a repository in the given directory.
+     *
+     * @param commits Number of commits in the history.
+     * @param tags Number of tags, named "release-" followed by the index of the commit they point to.
+     * @param headDistance Number of commits between HEAD and the nearest tag; zero means that HEAD is tagged.
+     * @param annotated Whether to create annotated tags, rather than lightweight tags.
+     * @param message The message of each commit and annotated tag.
+     */
+    static SyntheticRepository create(File dir, int commits, int tags, int headDistance, boolean annotated,
+                                      String message) throws IOException {
+        try (Repository repo = new FileRepositoryBuilder().setGitDir(new File(dir, ".git")).build()) {
+            repo.create();
+            int lastTaggedCommit = Math.max(0, commits - 1 - headDistance);
+            int tagInterval = Math.max(1, (lastTaggedCommit + 1) / Math.max(1, tags));
+
+            Map<String, ObjectId> tagRefs = new LinkedHashMap<>();
+            String nearestTag = null;
+            ObjectId parent = null;
+            try (ObjectInserter inserter = repo.newObjectInserter()) {
+                ObjectId tree = inserter.insert(new TreeFormatter());
+                for (int i = 0; i < commits; i++) {
+                    PersonIdent ident = new PersonIdent("Synthetic", "synthetic@example.com",
+                            new Date(FIRST_COMMIT_MILLIS + i * 1000L), TimeZone.getTimeZone("UTC"));
+                    CommitBuilder commit = new CommitBuilder();
+                    commit.setTreeId(tree);
+                    if (parent != null) {
+                        commit.setParentId(parent);
+                    }
+                    commit.setAuthor(ident);
+                    commit.setCommitter(ident);
+                    commit.setMessage(message);
+                    parent = inserter.insert(commit);
+
+                    // Tag evenly-spaced commits, ensuring the last one is the given distance from HEAD
+                    if (i <= lastTaggedCommit && (lastTaggedCommit - i) % tagInterval == 0 && tags > 0) {
+                        String name = "release-" + i;
+                        if (annotated) {
+                            TagBuilder tag = new TagBuilder();
+                            tag.setObjectId(parent, Constants.OBJ_COMMIT);
+                            tag.setTag(name);
+                            tag.setTagger(ident);
+                            tag.setMessage(message);
+                            tagRefs.put(name, inserter.insert(tag));
+                        } else {
+                            tagRefs.put(name, parent);
+                        }
+                        nearestTag = name;
+                    }
+                }
+                inserter.flush();
+            }
+
+            for (Map.Entry<String, ObjectId> tag : tagRefs.entrySet()) {
+                updateRef(repo, Constants.R_TAGS + tag.getKey(), tag.getValue());
+            }
+            updateRef(repo, Constants.R_HEADS + Constants.MASTER, parent);
+            return new SyntheticRepository(parent == null ? null : parent.name(), nearestTag);
+        }
+    }
+
+    private static void updateRef(Repository repo, String name, ObjectId id) throws IOException {
+        RefUpdate update = repo.updateRef(name);
+        update.setNewObjectId(id);
+        update.forceUpdate();
+    }
+
+}
@@ -0,0 +1,210 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+import hudson.util.StreamTaskListener;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TagInfoCacheTest {
+
+    private static final String REMOTE = "https://example.com/repo.git";
+
+    @Test
+    public void lookupShouldReturnStoredTagInfo() {
+        // Given a cache containing a lookup
+        TagInfoCache cache = new TagInfoCache(10);
+        TagInfo tag = TagInfo.found("release-1.0", "First release");
+        cache.put(key("abc123"), "refs-1", tag);
+
+        // When the same lookup is made against the same tag refs
+        TagInfo result = cache.lookup(key("abc123"), "refs-1");
+
+        // Then the cached info should be returned
+        assertSame(tag, result);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+    }
+
+    @Test
+    public void lookupShouldMissWhenTagRefsHaveChanged() {
+        // Given a cache containing a lookup
+        TagInfoCache cache = new TagInfoCache(10);
+        cache.put(key("abc123"), "refs-1", TagInfo.NONE);
+
+        // When the lookup is made after the tag refs have changed
+        TagInfo result = cache.lookup(key("abc123"), "refs-2");
+
+        // Then the entry should have been invalidated
+        assertNull(result);
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getInvalidationCount());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void lookupShouldMissForDifferentResolver() {
+        // Given a cache containing a lookup resolved via git describe
+        TagInfoCache cache = new TagInfoCache(10);
+        cache.put(key("abc123"), "refs", TagInfo.found("release-1.0", null));
+
+        // When the same commit is looked up by the in-process resolver, which may choose a different tag
+        TagInfoCache.Key inProcessKey = new TagInfoCache.Key(Collections.singleton(REMOTE), "abc123", false, null,
+                DescribeOptions.NONE, null, 0, true, false);
+
+        // Then the cached info should not be used
+        assertNull(cache.lookup(inProcessKey, "refs"));
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryShouldBeEvicted() {
+        // Given a full cache, where the first entry has been recently used
+        TagInfoCache cache = new TagInfoCache(2);
+        cache.put(key("a"), "refs", TagInfo.NONE);
+        cache.put(key("b"), "refs", TagInfo.NONE);
+        cache.lookup(key("a"), "refs");
+
+        // When another entry is added
+        cache.put(key("c"), "refs", TagInfo.NONE);
+
+        // Then the least recently used entry should have been evicted
+        assertNull(cache.lookup(key("b"), "refs"));
+        assertSame(TagInfo.NONE, cache.lookup(key("a"), "refs"));
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void entriesShouldBeEvictedWhenMessagesExceedSizeBound() {
+        // Given a cache bounded to 10 characters of messages, which holds a 6 character message
+        TagInfoCache cache = new TagInfoCache(10, 10);
+        cache.put(key("a"), "refs", TagInfo.found("release-1.0", "123456"));
+
+        // When another entry with a 6 character message is added
+        TagInfo tag = TagInfo.found("release-1.1", "abcdef");
+        cache.put(key("b"), "refs", tag);
+
+        // Then the older entry should have been evicted to stay within the bound
+        assertNull(cache.lookup(key("a"), "refs"));
+        assertSame(tag, cache.lookup(key("b"), "refs"));
+        assertEquals(6, cache.getMessageChars());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void messageLargerThanSizeBoundShouldNotBeCached() {
+        // Given a cache bounded to 10 characters of messages, which holds an entry
+        TagInfoCache cache = new TagInfoCache(10, 10);
+        cache.put(key("a"), "refs", TagInfo.NONE);
+
+        // When an entry with a message larger than the bound is added
+        cache.put(key("b"), "refs", TagInfo.found("release-1.0", "This message is too long"));
+
+        // Then it should not be cached, and the existing entry should be kept
+        assertNull(cache.lookup(key("b"), "refs"));
+        assertSame(TagInfo.NONE, cache.lookup(key("a"), "refs"));
+        assertEquals(0, cache.getMessageChars());
+    }
+
+    @Test
+    public void concurrentLookupsShouldShareSingleLoad() throws Exception {
+        // Given a lookup which is in progress
+        final TagInfoCache cache = new TagInfoCache(10);
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+        final TagInfo tag = TagInfo.found("release-1.0", null);
+        final TagInfoCache.Loader loader = () -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            release.await();
+            return tag;
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<TagInfo> first = executor.submit(() -> cache.get(key("abc123"), "refs", 0, loader));
+            loading.await();
+
+            // When an identical lookup is made
+            Future<TagInfo> second = executor.submit(() -> cache.get(key("abc123"), "refs", 0, loader));
+            while (cache.getCoalescedCount() == 0) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+
+            // Then both should get the same result, from a single load
+            assertSame(tag, first.get());
+            assertEquals(tag.getName(), second.get().getName());
+            assertEquals(1, loads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void lookupWhichRunsOutOfTimeShouldUseFallbackAndNotBeCached() throws Exception {
+        // Given a lookup which takes longer than its budget
+        TagInfoCache cache = new TagInfoCache(10);
+        TagInfoCache.Loader slow = () -> {
+            Thread.sleep(60_000);
+            return TagInfo.found("release-1.0", null);
+        };
+        TagInfoCache.Loader loader = LookupBudget.withTimeout(slow, 1,
+                () -> TagInfo.found("nightly", null), StreamTaskListener.fromStdout());
+
+        // When the tag is looked up
+        TagInfo result = cache.get(key("abc123"), "refs", 1, loader);
+
+        // Then the cheaper lookup should have been used instead
+        assertEquals("nightly", result.getName());
+        assertTrue(result.isDegraded());
+
+        // And the result should not have been cached, so that the next build tries the full lookup again
+        assertNull(cache.lookup(key("abc123"), "refs"));
+    }
+
+    @Test
+    public void lookupWithoutTimeLimitShouldNotShareResultOfLookupWhichRanOutOfTime() throws Exception {
+        // Given a lookup with a short time limit, which is in progress
+        final TagInfoCache cache = new TagInfoCache(10);
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final TagInfoCache.Loader slow = () -> {
+            loading.countDown();
+            release.await();
+            return TagInfo.found("release-1.0", null);
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<TagInfo> limited = executor.submit(() -> cache.get(key("abc123"), "refs", 1,
+                    LookupBudget.withTimeout(slow, 1, () -> TagInfo.NONE, StreamTaskListener.fromStdout())));
+            loading.await();
+
+            // When the same lookup is made without a time limit, and the first lookup runs out of time
+            Future<TagInfo> unlimited = executor.submit(() -> cache.get(key("abc123"), "refs", 0, slow));
+            assertTrue(limited.get().isDegraded());
+            release.countDown();
+
+            // Then the second lookup should have performed its own full lookup
+            assertEquals("release-1.0", unlimited.get().getName());
+            assertEquals(0, cache.getCoalescedCount());
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private static TagInfoCache.Key key(String commit) {
+        return new TagInfoCache.Key(Collections.singleton(REMOTE), commit, false, null, DescribeOptions.NONE, null,
+                0, false, false);
+    }
+
+}
@@ -0,0 +1,43 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TagOrderTest {
+
+    private final List<TagEntry> tags = Arrays.asList(
+            new TagEntry("v1.10", "Ten", "A <a@example.com>", "2020-01-01T00:00Z", 1000, true),
+            new TagEntry("v1.9", "Nine", "A <a@example.com>", "2020-01-02T00:00Z", 2000, true),
+            new TagEntry("latest", null, null, null, 0, false));
+
+    @Test
+    public void describeOrderShouldPreferNewestAnnotatedTag() {
+        assertEquals("v1.9", TagOrder.DESCRIBE.select(tags).getName());
+    }
+
+    @Test
+    public void alphabeticalOrderShouldPreferFirstName() {
+        assertEquals("latest", TagOrder.ALPHABETICAL.select(tags).getName());
+    }
+
+    @Test
+    public void versionOrderShouldCompareNumbersNumerically() {
+        assertEquals("v1.10", TagOrder.HIGHEST_VERSION.select(tags).getName());
+        assertTrue(TagOrder.compareVersions("release-2.0", "release-10.0") < 0);
+        assertTrue(TagOrder.compareVersions("1.2.3", "1.2") > 0);
+        assertEquals(0, TagOrder.compareVersions("v01.2", "v1.2"));
+    }
+
+    @Test
+    public void noTagShouldBeSelectedFromNone() {
+        assertNull(TagOrder.NEWEST.select(Collections.emptyList()));
+    }
+
+}
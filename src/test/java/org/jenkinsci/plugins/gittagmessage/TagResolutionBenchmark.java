@@ -0,0 +1,119 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+import hudson.EnvVars;
+import hudson.Util;
+import hudson.model.TaskListener;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.jenkinsci.plugins.gitclient.Git;
+import org.jenkinsci.plugins.gitclient.GitClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Measures the cost of each stage of tag resolution, via the git CLI and in-process with JGit, against a synthetic
+ * repository of configurable size.
+ * <p>
+ * Run via {@link TagResolutionBenchmarkRunner}.
+ */
+@State(Scope.Benchmark)
+public class TagResolutionBenchmark {
+
+    /** Number of commits in the repository's (linear) history. */
+    @Param("1000")
+    public int commits;
+
+    /** Number of tags, spread evenly through the history. */
+    @Param("100")
+    public int tags;
+
+    /** Number of commits between HEAD and the nearest tag; zero means that HEAD is tagged. */
+    @Param({"0", "100"})
+    public int headDistance;
+
+    /** Whether to create annotated tags, rather than lightweight tags. */
+    @Param({"true", "false"})
+    public boolean annotated;
+
+    /** Number of lines in each tag and commit message. */
+    @Param({"1", "1000"})
+    public int messageLines;
+
+    private File repoDir;
+    private Repository repo;
+    private GitClient cli;
+    private String head;
+    private String nearestTag;
+    private String description;
+
+    @Setup
+    public void createRepository() throws Exception {
+        repoDir = Files.createTempDirectory("tag-benchmark").toFile();
+        SyntheticRepository synthetic =
+                SyntheticRepository.create(repoDir, commits, tags, headDistance, annotated, createMessage());
+        head = synthetic.head;
+        nearestTag = synthetic.nearestTag;
+        repo = new FileRepositoryBuilder().setGitDir(new File(repoDir, ".git")).build();
+        cli = Git.with(TaskListener.NULL, new EnvVars()).in(repoDir).using("git").getClient();
+        description = cli.describe(head);
+    }
+
+    @TearDown
+    public void deleteRepository() throws IOException, InterruptedException {
+        repo.close();
+        Util.deleteRecursive(repoDir);
+    }
+
+    private String createMessage() {
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < messageLines; i++) {
+            message.append("Line ").append(i).append(" of the release notes for this synthetic tag\n");
+        }
+        return message.toString();
+    }
+
+    /** Runs "git describe" via the CLI and parses the result; the nearest tag index isn't used. */
+    @Benchmark
+    public String cliDescribe() throws InterruptedException {
+        return GitTagMessageExtension.parseTagName(cli.describe(head), head, true, new ResolutionTimings());
+    }
+
+    /** Runs "git tag -l -n10000" via the CLI for the nearest tag. */
+    @Benchmark
+    public TagInfo cliMessage() throws InterruptedException {
+        return GitTagMessageExtension.readTagInfo(cli, nearestTag, new ResolutionTimings());
+    }
+
+    /** The full CLI lookup; after the first iteration, the nearest tag will come from the nearest tag index. */
+    @Benchmark
+    public TagInfo cliResolve() throws InterruptedException {
+        return GitTagMessageExtension.resolveTag(cli, head, null, true, true, new ResolutionTimings());
+    }
+
+    /** Parses the output of "git describe". */
+    @Benchmark
+    public String parseDescription() {
+        return GitTagMessageExtension.parseTagName(description, head, true, new ResolutionTimings());
+    }
+
+    /** Reads the message of the nearest tag in-process. */
+    @Benchmark
+    public TagInfo inProcessMessage() throws IOException {
+        return new JGitTagResolver(head, nearestTag, true, DescribeOptions.NONE).invoke(repo, null);
+    }
+
+    /** The full in-process lookup, walking history to the nearest tag. */
+    @Benchmark
+    public TagInfo inProcessResolve() throws IOException {
+        return new JGitTagResolver(head, null, true, DescribeOptions.NONE).invoke(repo, null);
+    }
+
+}
@@ -0,0 +1,47 @@
+package org.jenkinsci.plugins.gittagmessage;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link TagResolutionBenchmark}, measuring throughput and allocation rates, and writes the results as JSON to
+ * {@code target/jmh-report.json}.
+ * <p>
+ * This only runs via {@code mvn test -P benchmark}. The benchmark parameters can be overridden with system properties,
+ * e.g. {@code -Dbenchmark.commits=1000000 -Dbenchmark.tags=60000}.
+ */
+public class TagResolutionBenchmarkRunner {
+
+    private static final String[] PARAMS = { "commits", "tags", "headDistance", "annotated", "messageLines" };
+
+    @Test
+    public void runBenchmarks() throws Exception {
+        Assume.assumeTrue("Benchmarks are only run with the 'benchmark' profile", Boolean.getBoolean("benchmark"));
+
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(TagResolutionBenchmark.class.getName())
+                .timeUnit(TimeUnit.SECONDS)
+                .warmupIterations(2)
+                .measurementIterations(5)
+                .forks(1)
+                .shouldFailOnError(true)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result("target/jmh-report.json");
+        for (String param : PARAMS) {
+            String value = System.getProperty("benchmark." + param);
+            if (value != null) {
+                options.param(param, value.split(","));
+            }
+        }
+        new Runner(options.build()).run();
+    }
+
+}